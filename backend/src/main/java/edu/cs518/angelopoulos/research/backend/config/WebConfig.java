@@ -1,16 +1,32 @@
 package edu.cs518.angelopoulos.research.backend.config;
 
+import edu.cs518.angelopoulos.research.backend.security.AuthenticatedUserArgumentResolver;
+import edu.cs518.angelopoulos.research.backend.services.FirebaseAuthService;
+import edu.cs518.angelopoulos.research.common.services.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 /**
  * Web configuration class.
  */
 @Configuration
 @EnableWebMvc
 public class WebConfig implements WebMvcConfigurer {
+    private final FirebaseAuthService firebaseAuthService;
+    private final UserService userService;
+
+    @Autowired
+    public WebConfig(FirebaseAuthService firebaseAuthService, UserService userService) {
+        this.firebaseAuthService = firebaseAuthService;
+        this.userService = userService;
+    }
+
     /**
      * Enables CORS for requests.
      *
@@ -25,4 +41,15 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowCredentials(false)
                 .maxAge(3600);
     }
+
+    /**
+     * Adds the resolver for parameters annotated with
+     * {@link edu.cs518.angelopoulos.research.backend.security.AuthenticatedUser}.
+     *
+     * @param resolvers List of argument resolvers
+     */
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new AuthenticatedUserArgumentResolver(firebaseAuthService, userService));
+    }
 }
@@ -1,9 +1,8 @@
 package edu.cs518.angelopoulos.research.backend.controllers;
 
-import com.google.firebase.auth.FirebaseToken;
-import edu.cs518.angelopoulos.research.backend.services.FirebaseAuthService;
+import edu.cs518.angelopoulos.research.backend.security.AuthenticatedUser;
 import edu.cs518.angelopoulos.research.common.models.EtdClaimCommentLikeStatus;
-import edu.cs518.angelopoulos.research.common.services.UserService;
+import edu.cs518.angelopoulos.research.common.models.EtdClaimCommentPage;
 import edu.cs518.angelopoulos.research.common.models.EtdClaimComment;
 import edu.cs518.angelopoulos.research.common.models.EtdClaimReproducible;
 import edu.cs518.angelopoulos.research.common.models.User;
@@ -25,17 +24,14 @@ import java.util.stream.Collectors;
 @RestController
 public class EtdClaimCommentController {
     private final EtdClaimCommentService etdClaimCommentService;
-    private final UserService userService;
-    private final FirebaseAuthService firebaseAuthService;
 
     Logger logger = LoggerFactory.getLogger(EtdClaimCommentController.class);
 
+    private final int PAGE_SIZE = 20;
+
     @Autowired
-    public EtdClaimCommentController(EtdClaimCommentService etdClaimCommentService, UserService userService,
-                                     FirebaseAuthService firebaseAuthService) {
+    public EtdClaimCommentController(EtdClaimCommentService etdClaimCommentService) {
         this.etdClaimCommentService = etdClaimCommentService;
-        this.userService = userService;
-        this.firebaseAuthService = firebaseAuthService;
     }
 
     @AllArgsConstructor
@@ -54,25 +50,49 @@ public class EtdClaimCommentController {
     }
 
     /**
-     * Gets the ETD claim comments of an ETD entry.
+     * DTO for transferring a page of comments.
+     */
+    private static class EtdClaimCommentPageDto {
+        public List<EtdClaimCommentDto> comments;
+
+        /**
+         * Cursor for the next page, null if there are no more comments.
+         */
+        public String nextCursor;
+    }
+
+    /**
+     * Gets a page of the ETD claim comments of an ETD entry.
      *
      * @param entryId ID of the ETD entry to get comments for
-     * @return Comments
+     * @param sort Order of the comments, either "recent" or "likes". Paging by likes can skip or repeat comments
+     *             whose likes change meanwhile.
+     * @param cursor Cursor returned with the previous page, omitted for the first page
+     * @return Page of comments
      */
     @GetMapping(path = "/public/etd/{entryId}/comments")
-    public ResponseEntity<?> getEntryClaimComments(@PathVariable Long entryId) {
+    public ResponseEntity<?> getEntryClaimComments(@PathVariable Long entryId,
+                                                   @RequestParam(name = "s", defaultValue = "recent") String sort,
+                                                   @RequestParam(name = "c", required = false) String cursor) {
         try {
-            final List<EtdClaimComment> entryComments = this.etdClaimCommentService.getEntryComments(entryId);
-            final List<EtdClaimCommentDto> entryCommentDtos = entryComments.stream()
-                    .map(c -> new EtdClaimCommentDto(c.getId(), c.getUser().getFirebaseId(), c.getUser().getFullName(),
+            final EtdClaimCommentPage.Sort commentSort = EtdClaimCommentPage.Sort.valueOf(sort.toUpperCase());
+            final EtdClaimCommentPage commentPage =
+                    this.etdClaimCommentService.getEntryComments(entryId, commentSort, cursor, PAGE_SIZE);
+
+            EtdClaimCommentPageDto commentPageDto = new EtdClaimCommentPageDto();
+            commentPageDto.comments = commentPage.getComments().stream()
+                    .map(c -> new EtdClaimCommentDto(c.getId(), c.getAuthorId(), c.getAuthorName(),
                             c.getClaim(), c.getReproducible().getValue(),
                             c.getProofSourceCodeUrl(), c.getProofDatasetUrl(), c.getResults(), c.getLikes(),
                             new Date(c.getCreatedAt().getTime())))
                     .collect(Collectors.toList());
+            commentPageDto.nextCursor = commentPage.getNextCursor();
 
-            return ResponseEntity.ok(entryCommentDtos);
+            return ResponseEntity.ok(commentPageDto);
         } catch (EtdEntryService.EtdEntryNotFoundException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Could not get claim comments for entry with ID " + entryId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid sort or cursor.");
         }
     }
 
@@ -83,11 +103,8 @@ public class EtdClaimCommentController {
      * @param commentDto Comment data
      */
     @PostMapping(path = "/private/etd/{entryId}/comment/add")
-    public ResponseEntity<?> addClaimCommentToEntry(@PathVariable Long entryId, @RequestBody EtdClaimCommentDto commentDto) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> addClaimCommentToEntry(@PathVariable Long entryId, @RequestBody EtdClaimCommentDto commentDto,
+                                                    @AuthenticatedUser User user) {
         // Build comment
         EtdClaimComment comment = new EtdClaimComment();
         comment.setClaim(commentDto.claim);
@@ -135,11 +152,8 @@ public class EtdClaimCommentController {
     }
 
     @GetMapping(path = "/private/etd/comment/like-statuses")
-    public ResponseEntity<?> getCommentLikeStatuses(@RequestParam(name = "i") List<Long> commentIds) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> getCommentLikeStatuses(@RequestParam(name = "i") List<Long> commentIds,
+                                                    @AuthenticatedUser User user) {
         final List<EtdClaimComment> comments = this.etdClaimCommentService.getComments(commentIds);
 
         if (comments.isEmpty()) {
@@ -153,11 +167,7 @@ public class EtdClaimCommentController {
     }
 
     @PutMapping(path = "/private/etd/comment/{commentId}/like")
-    public ResponseEntity<?> likeComment(@PathVariable Long commentId) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> likeComment(@PathVariable Long commentId, @AuthenticatedUser User user) {
         try {
             this.etdClaimCommentService.likeComment(user, commentId);
             return ResponseEntity.ok().build();
@@ -169,11 +179,7 @@ public class EtdClaimCommentController {
     }
 
     @PutMapping(path = "/private/etd/comment/{commentId}/unlike")
-    public ResponseEntity<?> unlikeComment(@PathVariable Long commentId) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> unlikeComment(@PathVariable Long commentId, @AuthenticatedUser User user) {
         try {
             this.etdClaimCommentService.removeCommentLike(user, commentId);
             return ResponseEntity.ok().build();
@@ -185,11 +191,7 @@ public class EtdClaimCommentController {
     }
 
     @PutMapping(path = "/private/etd/comment/{commentId}/dislike")
-    public ResponseEntity<?> dislikeComment(@PathVariable Long commentId) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> dislikeComment(@PathVariable Long commentId, @AuthenticatedUser User user) {
         try {
             this.etdClaimCommentService.dislikeComment(user, commentId);
             return ResponseEntity.ok().build();
@@ -201,11 +203,7 @@ public class EtdClaimCommentController {
     }
 
     @PutMapping(path = "/private/etd/comment/{commentId}/undislike")
-    public ResponseEntity<?> undislikeComment(@PathVariable Long commentId) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> undislikeComment(@PathVariable Long commentId, @AuthenticatedUser User user) {
         try {
             this.etdClaimCommentService.removeCommentDislike(user, commentId);
             return ResponseEntity.ok().build();
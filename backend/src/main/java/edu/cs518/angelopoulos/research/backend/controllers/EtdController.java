@@ -1,45 +1,41 @@
 package edu.cs518.angelopoulos.research.backend.controllers;
 
-import com.google.firebase.auth.FirebaseToken;
+import edu.cs518.angelopoulos.research.backend.security.AuthenticatedUser;
 import edu.cs518.angelopoulos.research.common.models.User;
-import edu.cs518.angelopoulos.research.backend.services.FirebaseAuthService;
+import edu.cs518.angelopoulos.research.backend.services.EtdDocumentDownloadService;
 import edu.cs518.angelopoulos.research.common.services.FavoriteEtdEntryService;
-import edu.cs518.angelopoulos.research.common.services.UserService;
 import edu.cs518.angelopoulos.research.common.models.EtdEntry;
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
 import edu.cs518.angelopoulos.research.common.services.EtdEntryService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
 
 @RestController
 public class EtdController {
     private final EtdEntryService etdEntryService;
-    private final FirebaseAuthService firebaseAuthService;
-    private final UserService userService;
     private final FavoriteEtdEntryService favoriteEtdEntryService;
+    private final EtdDocumentDownloadService etdDocumentDownloadService;
 
     Logger logger = LoggerFactory.getLogger(EtdController.class);
 
     @Autowired
-    public EtdController(EtdEntryService etdEntryService, FirebaseAuthService firebaseAuthService, UserService userService,
-                         FavoriteEtdEntryService favoriteEtdEntryService) {
+    public EtdController(EtdEntryService etdEntryService, FavoriteEtdEntryService favoriteEtdEntryService,
+                         EtdDocumentDownloadService etdDocumentDownloadService) {
         this.etdEntryService = etdEntryService;
-        this.firebaseAuthService = firebaseAuthService;
-        this.userService = userService;
         this.favoriteEtdEntryService = favoriteEtdEntryService;
+        this.etdDocumentDownloadService = etdDocumentDownloadService;
     }
 
     /**
@@ -64,12 +60,9 @@ public class EtdController {
      * @return List of ETD entry meta objects belonging to the user
      */
     @GetMapping(path = "/private/etd/user/created")
-    public ResponseEntity<List<EtdEntryMeta>> getUserCreatedEtdEntries() {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
-        final List<EtdEntryMeta> userCreatedEtdMetas = etdEntryService.getMetasForEtdEntries(user.getCreatedEtdEntries());
+    public ResponseEntity<List<EtdEntryMeta>> getUserCreatedEtdEntries(@AuthenticatedUser User user) {
+        final List<EtdEntryMeta> userCreatedEtdMetas = etdEntryService.getMetasForEtdEntryIds(
+                etdEntryService.getCreatedEtdEntryIds(user));
 
         return ResponseEntity.ok(userCreatedEtdMetas);
     }
@@ -80,12 +73,9 @@ public class EtdController {
      * @return List of ETD entry meta objects belonging to the user
      */
     @GetMapping(path = "/private/etd/user/favorite")
-    public ResponseEntity<List<EtdEntryMeta>> getUserFavoriteEtdEntries() {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
-        final List<EtdEntryMeta> userFavoriteEtdMetas = etdEntryService.getMetasForEtdEntries(user.getFavoriteEtdEntries());
+    public ResponseEntity<List<EtdEntryMeta>> getUserFavoriteEtdEntries(@AuthenticatedUser User user) {
+        final List<EtdEntryMeta> userFavoriteEtdMetas = etdEntryService.getMetasForEtdEntryIds(
+                favoriteEtdEntryService.getFavoriteEtdEntryIds(user));
 
         return ResponseEntity.ok(userFavoriteEtdMetas);
     }
@@ -96,11 +86,8 @@ public class EtdController {
      * @param entryId ID of the ETD entry
      */
     @PutMapping(path = "/private/etd/user/favorite/add")
-    public ResponseEntity<?> addUserFavoriteEtdEntry(@RequestParam(name = "i") Long entryId) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> addUserFavoriteEtdEntry(@RequestParam(name = "i") Long entryId,
+                                                     @AuthenticatedUser User user) {
         try {
             final EtdEntry etdEntryToAdd = etdEntryService.getEtdEntry(entryId);
             favoriteEtdEntryService.addFavoriteEtdEntry(user, etdEntryToAdd);
@@ -119,11 +106,8 @@ public class EtdController {
      * @return List of boolean values for every passed entry ID.
      */
     @GetMapping(path = "/private/etd/user/favorite/check")
-    public ResponseEntity<List<Boolean>> checkEtdEntriesAreFavorite(@RequestParam(name = "i") List<Long> entryIds) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<List<Boolean>> checkEtdEntriesAreFavorite(@RequestParam(name = "i") List<Long> entryIds,
+                                                                    @AuthenticatedUser User user) {
         final List<Boolean> matches = favoriteEtdEntryService.checkEtdEntriesFavorite(user, entryIds);
 
         return ResponseEntity.ok(matches);
@@ -135,11 +119,8 @@ public class EtdController {
      * @param entryId ID of the ETD entry
      */
     @DeleteMapping(path = "/private/etd/user/favorite/remove")
-    public ResponseEntity<?> removeUserFavoriteEtdEntry(@RequestParam(name = "i") Long entryId) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> removeUserFavoriteEtdEntry(@RequestParam(name = "i") Long entryId,
+                                                        @AuthenticatedUser User user) {
         try {
             final EtdEntry etdEntryToRemove = etdEntryService.getEtdEntry(entryId);
             favoriteEtdEntryService.removeFavoriteEtdEntry(user, etdEntryToRemove);
@@ -160,12 +141,8 @@ public class EtdController {
     @PostMapping(path = "/private/etd/create", consumes = {"multipart/form-data"})
     public ResponseEntity<?> createEtdEntry(
             @RequestPart("metadata") @NonNull EtdEntryMeta etdEntryMeta,
-            @RequestPart("etdDocument") @NonNull MultipartFile etdDocumentFile) {
-        // Get user ID so it can be associated with the new ETD entry
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+            @RequestPart("etdDocument") @NonNull MultipartFile etdDocumentFile,
+            @AuthenticatedUser User user) {
         try {
             EtdEntry createdEntry = etdEntryService.createEtdEntry(etdEntryMeta, etdDocumentFile, user);
             logger.info("Created new ETD entry with id {}.", createdEntry.getId());
@@ -187,11 +164,7 @@ public class EtdController {
      * @return True if entry was deleted, false otherwise
      */
     @DeleteMapping(path = "/private/etd/delete/{entryId}")
-    public ResponseEntity<?> deleteEtdEntry(@PathVariable Long entryId) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
-        final String userId = userIdToken.getUid();
-        User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<?> deleteEtdEntry(@PathVariable Long entryId, @AuthenticatedUser User user) {
         try {
             EtdEntry etdEntry = etdEntryService.getEtdEntry(entryId);
             if (etdEntry.getUser().equals(user)) {
@@ -208,28 +181,24 @@ public class EtdController {
 
     /**
      * Downloads the ETD document for the ETD entry with the specified ID.
+     * Supports byte range and conditional requests.
      *
      * @param entryId ID of the ETD entry to get the document from
-     * @return ETD document file data as stream
+     * @param request Request
+     * @param response Response the ETD document file data is written to
+     * @throws IOException If the ETD document cannot be sent
      */
     @GetMapping(path = "/public/etd/{entryId}/download")
-    public ResponseEntity<InputStreamResource> downloadEtdDocument(@PathVariable Long entryId) {
+    public void downloadEtdDocument(@PathVariable Long entryId, HttpServletRequest request,
+                                    HttpServletResponse response) throws IOException {
+        final EtdEntryService.EtdDocumentResult etdDocument;
         try {
-            EtdEntryService.EtdDocumentResult etdDocumentResult = etdEntryService.getEtdDocument(entryId);
-
-            File etdDocumentFile = etdDocumentResult.file;
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION,
-                    "attachment; filename=" + etdDocumentFile.getName());
-
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentLength(etdDocumentFile.length())
-                    .contentType(MediaType.APPLICATION_PDF)
-                    .body(etdDocumentResult.resource);
-        } catch (IOException | EtdEntryService.EtdEntryNotFoundException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            etdDocument = etdEntryService.getEtdDocument(entryId);
+        } catch (FileNotFoundException | EtdEntryService.EtdEntryNotFoundException e) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
         }
+
+        etdDocumentDownloadService.sendDocument(etdDocument.file, etdDocument.filename, request, response);
     }
 }
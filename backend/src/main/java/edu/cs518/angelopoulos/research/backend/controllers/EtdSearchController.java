@@ -1,8 +1,18 @@
 package edu.cs518.angelopoulos.research.backend.controllers;
 
+import edu.cs518.angelopoulos.research.backend.security.AuthenticatedUser;
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaFacets;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaHighlight;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchAfterPage;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchCard;
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchQuery;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSuggestion;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryTextSearchPage;
 import edu.cs518.angelopoulos.research.common.services.EtdEntryService;
+import edu.cs518.angelopoulos.research.common.models.User;
+import edu.cs518.angelopoulos.research.common.services.EtdSearchCacheService;
+import edu.cs518.angelopoulos.research.common.services.FavoriteEtdEntryService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,20 +23,27 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 @RestController
 public class EtdSearchController {
     private final EtdEntryService etdEntryService;
+    private final EtdSearchCacheService etdSearchCacheService;
+    private final FavoriteEtdEntryService favoriteEtdEntryService;
 
     Logger logger = LoggerFactory.getLogger(EtdSearchController.class);
 
     private final int PAGE_SIZE = 20;
+    private final int SUGGESTION_COUNT = 10;
 
     @Autowired
-    public EtdSearchController(EtdEntryService etdEntryService) {
+    public EtdSearchController(EtdEntryService etdEntryService, EtdSearchCacheService etdSearchCacheService,
+                               FavoriteEtdEntryService favoriteEtdEntryService) {
         this.etdEntryService = etdEntryService;
+        this.etdSearchCacheService = etdSearchCacheService;
+        this.favoriteEtdEntryService = favoriteEtdEntryService;
     }
 
     /**
@@ -37,25 +54,66 @@ public class EtdSearchController {
         public Integer resultsPerPage;
         public Long totalResultsInPages;
 
-        public List<EtdEntryMeta> pageResults;
+        /**
+         * Search cards for the results, or full EtdEntryMeta documents if requested.
+         */
+        public List<?> pageResults;
+
+        /**
+         * Cursor for the next page, only set when searching with a cursor.
+         */
+        public String nextCursor;
+
+        /**
+         * Whether each result is a favorite of the user, only set when the request is authenticated.
+         */
+        public List<Boolean> favorites;
+
+        /**
+         * Result counts per filterable field value, only set for advanced searches.
+         */
+        public EtdEntryMetaFacets facets;
+
+        /**
+         * Highlighted title and abstract fragments of each result, not set for full-text searches.
+         */
+        public List<EtdEntryMetaHighlight> highlights;
     }
 
     /**
      * Searches an ETD entry by title.
+     * Pages can either be requested by number, or by the cursor returned with the previous page.
+     * Cursors should be preferred for deep paging.
      *
      * @param title Title to search for
      * @param pageNumber Index of the page to return
+     * @param cursor Cursor returned with the previous page. Empty to get the first page in cursor mode.
+     * @param full Whether to return the full ETD entry metadata instead of search cards
      * @return Page of results and related metadata
      */
     @GetMapping(path = "/public/etd/search")
     public ResponseEntity<EtdEntryMetaSearchResponse> searchEtdByTitle(
             @RequestParam(name = "t") String title,
-            @RequestParam(name = "p") Integer pageNumber) {
-        SearchPage<EtdEntryMeta> etdEntryMetaPage = this.etdEntryService.findByTitle(title, pageNumber, PAGE_SIZE);
+            @RequestParam(name = "p", defaultValue = "0") Integer pageNumber,
+            @RequestParam(name = "c", required = false) String cursor,
+            @RequestParam(name = "full", defaultValue = "false") boolean full,
+            @AuthenticatedUser User user) {
+        if (cursor != null) {
+            return searchEtdByTitleAfter(title, cursor, full, user);
+        }
+
+        if (pageNumber < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        SearchPage<EtdEntryMeta> etdEntryMetaPage = this.etdEntryService.findByTitle(title, pageNumber, PAGE_SIZE, full);
 
         EtdEntryMetaSearchResponse etdEntryMetaSearchResponse = new EtdEntryMetaSearchResponse();
-        etdEntryMetaSearchResponse.pageResults = etdEntryMetaPage.getContent()
+        final List<EtdEntryMeta> etdEntryMetas = etdEntryMetaPage.getContent()
                 .stream().map(SearchHit::getContent).collect(Collectors.toList());
+        etdEntryMetaSearchResponse.pageResults = toPageResults(etdEntryMetas, full);
+        etdEntryMetaSearchResponse.favorites = getFavorites(user, etdEntryMetas);
+        etdEntryMetaSearchResponse.highlights = getHighlights(etdEntryMetaPage);
         etdEntryMetaSearchResponse.totalPages = etdEntryMetaPage.getTotalPages();
         etdEntryMetaSearchResponse.resultsPerPage = PAGE_SIZE;
         etdEntryMetaSearchResponse.totalResultsInPages = etdEntryMetaPage.getTotalElements();
@@ -63,6 +121,73 @@ public class EtdSearchController {
         return ResponseEntity.ok(etdEntryMetaSearchResponse);
     }
 
+    private ResponseEntity<EtdEntryMetaSearchResponse> searchEtdByTitleAfter(String title, String cursor, boolean full,
+                                                                             User user) {
+        EtdEntryMetaSearchAfterPage etdEntryMetaPage;
+        try {
+            etdEntryMetaPage = this.etdEntryService.findByTitleAfter(title, cursor.isEmpty() ? null : cursor, PAGE_SIZE, full);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        EtdEntryMetaSearchResponse etdEntryMetaSearchResponse = new EtdEntryMetaSearchResponse();
+        etdEntryMetaSearchResponse.pageResults = toPageResults(etdEntryMetaPage.getResults(), full);
+        etdEntryMetaSearchResponse.favorites = getFavorites(user, etdEntryMetaPage.getResults());
+        etdEntryMetaSearchResponse.highlights = etdEntryMetaPage.getHighlights();
+        etdEntryMetaSearchResponse.totalPages = (int) ((etdEntryMetaPage.getTotalResults() + PAGE_SIZE - 1) / PAGE_SIZE);
+        etdEntryMetaSearchResponse.resultsPerPage = PAGE_SIZE;
+        etdEntryMetaSearchResponse.totalResultsInPages = etdEntryMetaPage.getTotalResults();
+        etdEntryMetaSearchResponse.nextCursor = etdEntryMetaPage.getNextCursor();
+
+        return ResponseEntity.ok(etdEntryMetaSearchResponse);
+    }
+
+    /**
+     * Searches the full text of the ETD documents.
+     *
+     * @param text Text to search for
+     * @param pageNumber Index of the page to return
+     * @param full Whether to return the full ETD entry metadata instead of search cards
+     * @return Page of results and related metadata
+     */
+    @GetMapping(path = "/public/etd/search-text")
+    public ResponseEntity<EtdEntryMetaSearchResponse> searchEtdByText(
+            @RequestParam(name = "t") String text,
+            @RequestParam(name = "p", defaultValue = "0") Integer pageNumber,
+            @RequestParam(name = "full", defaultValue = "false") boolean full,
+            @AuthenticatedUser User user) {
+        if (pageNumber < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        EtdEntryTextSearchPage etdEntryTextPage = this.etdEntryService.fullTextSearch(text, pageNumber, PAGE_SIZE, full);
+
+        EtdEntryMetaSearchResponse etdEntryMetaSearchResponse = new EtdEntryMetaSearchResponse();
+        etdEntryMetaSearchResponse.pageResults = toPageResults(etdEntryTextPage.getResults(), full);
+        etdEntryMetaSearchResponse.favorites = getFavorites(user, etdEntryTextPage.getResults());
+        etdEntryMetaSearchResponse.totalPages = (int) ((etdEntryTextPage.getTotalResults() + PAGE_SIZE - 1) / PAGE_SIZE);
+        etdEntryMetaSearchResponse.resultsPerPage = PAGE_SIZE;
+        etdEntryMetaSearchResponse.totalResultsInPages = etdEntryTextPage.getTotalResults();
+
+        return ResponseEntity.ok(etdEntryMetaSearchResponse);
+    }
+
+    /**
+     * Suggests ETD entry titles while the user types a search.
+     * Much cheaper than a title search, as only the IDs and titles of the best prefix matches are returned.
+     *
+     * @param prefix Text typed so far
+     * @return IDs and titles of the suggested ETD entries
+     */
+    @GetMapping(path = "/public/etd/suggest")
+    public ResponseEntity<List<EtdEntryMetaSuggestion>> suggestEtdTitles(@RequestParam(name = "t") String prefix) {
+        if (prefix.isBlank()) {
+            return ResponseEntity.ok(Collections.emptyList());
+        }
+
+        return ResponseEntity.ok(this.etdEntryService.suggestTitles(prefix, SUGGESTION_COUNT));
+    }
+
     /**
      * Performs an advanced search for an ETD entry, searching for multiple fields.
      *
@@ -73,7 +198,8 @@ public class EtdSearchController {
      * @param degreeGrantor Degree grantor (institute)
      * @param publisher Publisher (institute)
      * @param pageNumber Index of the page to return
-     * @return Page of results and related metadata
+     * @param full Whether to return the full ETD entry metadata instead of search cards
+     * @return Page of results, facets of all results and related metadata
      */
     @GetMapping(path = "/public/etd/search-advanced")
     public ResponseEntity<EtdEntryMetaSearchResponse> searchEtdEntryAdvanced(
@@ -84,18 +210,81 @@ public class EtdSearchController {
             @RequestParam(name = "d", required = false) String department,
             @RequestParam(name = "dg", required = false) String degreeGrantor,
             @RequestParam(name = "pb", required = false) String publisher,
-            @RequestParam(name = "p") Integer pageNumber) {
+            @RequestParam(name = "p") Integer pageNumber,
+            @RequestParam(name = "full", defaultValue = "false") boolean full,
+            @AuthenticatedUser User user) {
+        if (pageNumber < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
         EtdEntryMetaSearchQuery query = new EtdEntryMetaSearchQuery(title, type, subject, author, department, degreeGrantor, publisher);
 
-        SearchPage<EtdEntryMeta> etdEntryMetaPage = etdEntryService.advancedSearch(query, pageNumber, PAGE_SIZE);
+        SearchPage<EtdEntryMeta> etdEntryMetaPage = etdEntryService.advancedSearch(query, pageNumber, PAGE_SIZE, full);
 
         EtdEntryMetaSearchResponse etdEntryMetaSearchResponse = new EtdEntryMetaSearchResponse();
-        etdEntryMetaSearchResponse.pageResults = etdEntryMetaPage.getContent()
+        final List<EtdEntryMeta> etdEntryMetas = etdEntryMetaPage.getContent()
                 .stream().map(SearchHit::getContent).collect(Collectors.toList());
+        etdEntryMetaSearchResponse.pageResults = toPageResults(etdEntryMetas, full);
+        etdEntryMetaSearchResponse.favorites = getFavorites(user, etdEntryMetas);
+        etdEntryMetaSearchResponse.highlights = getHighlights(etdEntryMetaPage);
+        etdEntryMetaSearchResponse.facets = EtdEntryMetaFacets.from(etdEntryMetaPage.getSearchHits());
         etdEntryMetaSearchResponse.totalPages = etdEntryMetaPage.getTotalPages();
         etdEntryMetaSearchResponse.resultsPerPage = PAGE_SIZE;
         etdEntryMetaSearchResponse.totalResultsInPages = etdEntryMetaPage.getTotalElements();
 
         return ResponseEntity.ok(etdEntryMetaSearchResponse);
     }
+
+    /**
+     * Gets the counters of the search result cache, used for sizing it.
+     *
+     * @return Search cache statistics
+     */
+    @GetMapping(path = "/private-admin/etd/search/cache")
+    public ResponseEntity<EtdSearchCacheService.Statistics> getSearchCacheStatistics() {
+        return ResponseEntity.ok(etdSearchCacheService.getStatistics());
+    }
+
+    /**
+     * Checks which search results are favorites of the authenticated user.
+     *
+     * @param user Authenticated user, null if the request is not authenticated
+     * @param etdEntryMetas Search results
+     * @return Whether each result is a favorite, null if the request is not authenticated
+     */
+    private List<Boolean> getFavorites(User user, List<EtdEntryMeta> etdEntryMetas) {
+        if (user == null) {
+            return null;
+        }
+
+        return favoriteEtdEntryService.checkEtdEntriesFavorite(user,
+                etdEntryMetas.stream().map(EtdEntryMeta::getId).collect(Collectors.toList()));
+    }
+
+    /**
+     * Gets the highlighted fragments of each search result.
+     *
+     * @param etdEntryMetaPage Page of search results
+     * @return Highlight of each result
+     */
+    private List<EtdEntryMetaHighlight> getHighlights(SearchPage<EtdEntryMeta> etdEntryMetaPage) {
+        return etdEntryMetaPage.getContent().stream()
+                .map(searchHit -> EtdEntryMetaHighlight.from(searchHit.getHighlightFields()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Maps search results to the objects returned to the client.
+     *
+     * @param etdEntryMetas Search results
+     * @param full Whether to return the full ETD entry metadata instead of search cards
+     * @return List of search cards or full ETD entry metadata
+     */
+    private List<?> toPageResults(List<EtdEntryMeta> etdEntryMetas, boolean full) {
+        if (full) {
+            return etdEntryMetas;
+        }
+
+        return etdEntryMetas.stream().map(EtdEntryMetaSearchCard::from).collect(Collectors.toList());
+    }
 }
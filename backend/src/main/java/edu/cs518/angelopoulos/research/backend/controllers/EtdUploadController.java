@@ -0,0 +1,190 @@
+package edu.cs518.angelopoulos.research.backend.controllers;
+
+import edu.cs518.angelopoulos.research.backend.security.AuthenticatedUser;
+import edu.cs518.angelopoulos.research.backend.services.FirebaseAuthService;
+import edu.cs518.angelopoulos.research.common.models.EtdEntry;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import edu.cs518.angelopoulos.research.common.models.User;
+import edu.cs518.angelopoulos.research.common.services.EtdDocumentUploadService;
+import edu.cs518.angelopoulos.research.common.services.EtdEntryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.NonNull;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * REST API for creating ETD entries from resumable, chunked uploads.
+ * <p>
+ * An upload is started, its file is sent as a sequence of raw chunks, each starting at the offset returned for
+ * the previous chunk, and it is then completed with the ETD entry metadata. If a chunk fails, the current offset
+ * of the upload can be requested and the upload continued from there.
+ */
+@RestController
+public class EtdUploadController {
+    private final EtdDocumentUploadService etdDocumentUploadService;
+    private final EtdEntryService etdEntryService;
+    private final FirebaseAuthService firebaseAuthService;
+
+    Logger logger = LoggerFactory.getLogger(EtdUploadController.class);
+
+    @Autowired
+    public EtdUploadController(EtdDocumentUploadService etdDocumentUploadService, EtdEntryService etdEntryService,
+                               FirebaseAuthService firebaseAuthService) {
+        this.etdDocumentUploadService = etdDocumentUploadService;
+        this.etdEntryService = etdEntryService;
+        this.firebaseAuthService = firebaseAuthService;
+    }
+
+    /**
+     * DTO for transferring the state of an upload.
+     */
+    public static class UploadStatus {
+        public String uploadId;
+        public Long offset;
+
+        UploadStatus(String uploadId, Long offset) {
+            this.uploadId = uploadId;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Starts a new upload of an ETD document file.
+     *
+     * @param filename Name of the ETD document file
+     * @return ID of the upload
+     */
+    @PostMapping(path = "/private/etd/upload")
+    public ResponseEntity<?> beginUpload(@RequestParam(name = "f") String filename) {
+        final String userId = firebaseAuthService.getUserIdToken().getUid();
+
+        try {
+            EtdDocumentUploadService.Upload upload = etdDocumentUploadService.beginUpload(userId, filename);
+            return ResponseEntity.ok(new UploadStatus(upload.getId(), upload.getOffset()));
+        } catch (EtdDocumentUploadService.UploadValidationException e) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).body(e.getMessage());
+        } catch (IOException e) {
+            logger.error("Failed to begin upload.", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Gets the current offset of an upload, to continue it after a failed chunk.
+     *
+     * @param uploadId ID of the upload
+     * @return State of the upload
+     */
+    @GetMapping(path = "/private/etd/upload/{uploadId}")
+    public ResponseEntity<UploadStatus> getUpload(@PathVariable String uploadId) {
+        final String userId = firebaseAuthService.getUserIdToken().getUid();
+
+        try {
+            EtdDocumentUploadService.Upload upload = etdDocumentUploadService.getUpload(uploadId, userId);
+            return ResponseEntity.ok(new UploadStatus(upload.getId(), upload.getOffset()));
+        } catch (EtdDocumentUploadService.UploadNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+    }
+
+    /**
+     * Appends a chunk to an upload. The request body is the raw chunk, streamed directly to the upload file.
+     *
+     * @param uploadId ID of the upload
+     * @param offset Offset of the chunk in the file, must be the current offset of the upload
+     * @param request Request containing the chunk
+     * @return New state of the upload. On an offset mismatch, the current state with status 409.
+     */
+    @PutMapping(path = "/private/etd/upload/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> appendChunk(@PathVariable String uploadId, @RequestParam(name = "o") Long offset,
+                                         HttpServletRequest request) {
+        final String userId = firebaseAuthService.getUserIdToken().getUid();
+
+        try {
+            final long newOffset = etdDocumentUploadService.appendChunk(uploadId, userId, offset, request.getInputStream());
+            return ResponseEntity.ok(new UploadStatus(uploadId, newOffset));
+        } catch (EtdDocumentUploadService.UploadNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (EtdDocumentUploadService.UploadOffsetMismatchException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new UploadStatus(uploadId, e.offset));
+        } catch (EtdDocumentUploadService.UploadValidationException e) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).body(e.getMessage());
+        } catch (IOException e) {
+            logger.error("Failed to write chunk of upload {}.", uploadId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Completes an upload and creates a new ETD entry with the uploaded ETD document.
+     *
+     * @param uploadId ID of the upload
+     * @param contentHash SHA-256 hash of the file computed by the client, checked if given
+     * @param etdEntryMeta ETD entry metadata
+     * @return True if ETD entry was created, false otherwise
+     */
+    @PostMapping(path = "/private/etd/upload/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String uploadId,
+                                            @RequestParam(name = "h", required = false) String contentHash,
+                                            @RequestBody @NonNull EtdEntryMeta etdEntryMeta,
+                                            @AuthenticatedUser User user) {
+        final String userId = firebaseAuthService.getUserIdToken().getUid();
+
+        try {
+            // Validate before completing, so that the upload is kept if the metadata is invalid
+            etdEntryService.validateEtdEntryMeta(etdEntryMeta);
+
+            EtdDocumentUploadService.CompletedUpload upload =
+                    etdDocumentUploadService.completeUpload(uploadId, userId, contentHash);
+
+            // The upload is only removed once the entry exists, so that a failed completion can be retried
+            boolean created = false;
+            try {
+                EtdEntry createdEntry = etdEntryService.createEtdEntryFromUpload(etdEntryMeta, upload, user);
+                created = true;
+                logger.info("Created new ETD entry with id {} from upload {}.", createdEntry.getId(), uploadId);
+            } finally {
+                if (created) {
+                    etdDocumentUploadService.finishUpload(upload);
+                } else {
+                    etdDocumentUploadService.abandonCompletion(upload);
+                }
+            }
+        } catch (EtdDocumentUploadService.UploadNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (EtdEntryService.EtdEntryValidationException | EtdDocumentUploadService.UploadValidationException e) {
+            logger.error("Failed to validate ETD entry.");
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).body(e.getMessage());
+        } catch (EtdEntryService.EtdEntryCreationException e) {
+            logger.error("Failed to create ETD entry.");
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).body("Failed to create ETD entry.");
+        }
+
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Cancels an upload and deletes its file.
+     *
+     * @param uploadId ID of the upload
+     */
+    @DeleteMapping(path = "/private/etd/upload/{uploadId}")
+    public ResponseEntity<?> cancelUpload(@PathVariable String uploadId) {
+        final String userId = firebaseAuthService.getUserIdToken().getUid();
+
+        try {
+            etdDocumentUploadService.cancelUpload(uploadId, userId);
+        } catch (EtdDocumentUploadService.UploadNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        return ResponseEntity.ok().build();
+    }
+}
@@ -1,6 +1,7 @@
 package edu.cs518.angelopoulos.research.backend.controllers;
 
-import com.google.firebase.auth.FirebaseToken;
+import edu.cs518.angelopoulos.research.backend.security.AuthenticatedUser;
+import edu.cs518.angelopoulos.research.backend.security.VerifiedIdToken;
 import edu.cs518.angelopoulos.research.common.models.User;
 import edu.cs518.angelopoulos.research.backend.services.FirebaseAuthService;
 import edu.cs518.angelopoulos.research.common.services.UserService;
@@ -55,7 +56,7 @@ public class UserController {
      */
     @PostMapping(path = "/private/user/create")
     public ResponseEntity<String> createUser(@RequestBody UserData requestBody) {
-        final FirebaseToken userIdToken = firebaseAuthService.getUserIdToken();
+        final VerifiedIdToken userIdToken = firebaseAuthService.getUserIdToken();
         final String userId = userIdToken.getUid();
 
         final String fullName = !requestBody.fullName.isEmpty() ? requestBody.fullName : userIdToken.getName();
@@ -93,12 +94,7 @@ public class UserController {
      * @return User data
      */
     @GetMapping(path = "/private/user/get")
-    public ResponseEntity<UserData> getUser() {
-        final String userId = firebaseAuthService.getUserIdToken().getUid();
-
-        // Get user
-        final User user = userService.getUserByFirebaseId(userId);
-
+    public ResponseEntity<UserData> getUser(@AuthenticatedUser User user) {
         // Create DTO
         final UserData userData = new UserData();
         userData.fullName = user.getFullName();
@@ -0,0 +1,15 @@
+package edu.cs518.angelopoulos.research.backend.security;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a controller method parameter to the user profile of the authenticated user.
+ * The parameter is null if the request is not authenticated or the user has no profile.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AuthenticatedUser {
+}
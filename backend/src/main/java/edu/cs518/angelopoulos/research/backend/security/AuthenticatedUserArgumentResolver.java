@@ -0,0 +1,55 @@
+package edu.cs518.angelopoulos.research.backend.security;
+
+import edu.cs518.angelopoulos.research.backend.services.FirebaseAuthService;
+import edu.cs518.angelopoulos.research.common.models.User;
+import edu.cs518.angelopoulos.research.common.services.UserService;
+import org.springframework.core.MethodParameter;
+import org.springframework.lang.NonNull;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * Resolves {@link AuthenticatedUser} parameters. The user is looked up once per request and kept as a request
+ * attribute, and lookups go through the user profile cache of {@link UserService}.
+ */
+public class AuthenticatedUserArgumentResolver implements HandlerMethodArgumentResolver {
+    private static final String USER_ATTRIBUTE = AuthenticatedUserArgumentResolver.class.getName() + ".user";
+
+    private final FirebaseAuthService firebaseAuthService;
+    private final UserService userService;
+
+    public AuthenticatedUserArgumentResolver(FirebaseAuthService firebaseAuthService, UserService userService) {
+        this.firebaseAuthService = firebaseAuthService;
+        this.userService = userService;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(AuthenticatedUser.class)
+                && User.class.isAssignableFrom(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(@NonNull MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  @NonNull NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        User user = (User) webRequest.getAttribute(USER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (user != null) {
+            return user;
+        }
+
+        final VerifiedIdToken userIdToken = firebaseAuthService.findUserIdToken();
+        if (userIdToken == null) {
+            return null;
+        }
+
+        user = userService.getUserByFirebaseId(userIdToken.getUid());
+        if (user != null) {
+            webRequest.setAttribute(USER_ATTRIBUTE, user, RequestAttributes.SCOPE_REQUEST);
+        }
+
+        return user;
+    }
+}
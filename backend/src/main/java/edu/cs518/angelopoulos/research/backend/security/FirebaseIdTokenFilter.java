@@ -1,39 +1,43 @@
 package edu.cs518.angelopoulos.research.backend.security;
 
 import com.google.api.client.util.Strings;
-import com.google.api.core.ApiFuture;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseToken;
 import edu.cs518.angelopoulos.research.backend.services.FirebaseClaimService;
+import edu.cs518.angelopoulos.research.backend.services.FirebaseIdTokenCacheService;
+import edu.cs518.angelopoulos.research.backend.services.FirebaseIdTokenVerifierService;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
-import org.springframework.security.web.util.matcher.RequestMatcher;
-import org.springframework.stereotype.Component;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
-import javax.servlet.Filter;
-import javax.servlet.FilterChain;
-import javax.servlet.ServletContext;
-import javax.servlet.ServletException;
+import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Request filter that authorizes requests by validating the Firebase Bearer ID token.
+ * <p>
+ * Tokens that are not cached are verified asynchronously if the request supports it. The request is suspended,
+ * its thread is returned to the container while the token is verified, and the request is dispatched again
+ * with the result.
+ * <p>
+ * The filter is not a component, as it would then also be registered with the servlet container and run a second
+ * time on every dispatch. It is only added to the security filter chain.
  */
-@Component
 public class FirebaseIdTokenFilter extends OncePerRequestFilter implements Filter {
+    private static final String AUTHENTICATION_ATTRIBUTE = FirebaseIdTokenFilter.class.getName() + ".authentication";
 
     private FirebaseClaimService firebaseClaimService;
+    private FirebaseIdTokenCacheService firebaseIdTokenCacheService;
+    private FirebaseIdTokenVerifierService firebaseIdTokenVerifierService;
+
+    private boolean asyncVerification = true;
+    private long asyncTimeoutMillis = 10000;
 
     private static class EmailUnverifiedException extends Exception {
         public EmailUnverifiedException(String errorMessage) {
@@ -41,20 +45,59 @@ public class FirebaseIdTokenFilter extends OncePerRequestFilter implements Filte
         }
     }
 
+    public FirebaseIdTokenFilter() {
+    }
+
+    /**
+     * Creates a filter with explicit services, instead of getting them from the application context.
+     */
+    public FirebaseIdTokenFilter(FirebaseClaimService firebaseClaimService,
+                                 FirebaseIdTokenCacheService firebaseIdTokenCacheService,
+                                 FirebaseIdTokenVerifierService firebaseIdTokenVerifierService,
+                                 boolean asyncVerification) {
+        this.firebaseClaimService = firebaseClaimService;
+        this.firebaseIdTokenCacheService = firebaseIdTokenCacheService;
+        this.firebaseIdTokenVerifierService = firebaseIdTokenVerifierService;
+        this.asyncVerification = asyncVerification;
+    }
+
+    /**
+     * The filter must run again when a request is dispatched after asynchronous verification.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
     @Override
     protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
                                     @NonNull FilterChain filterChain)
             throws ServletException, IOException {
 
-        // Lazy inject claim service it cannot be autowired
+        // Lazy inject services as they cannot be autowired
         if (firebaseClaimService == null) {
             ServletContext servletContext = request.getServletContext();
             WebApplicationContext webApplicationContext = WebApplicationContextUtils.getWebApplicationContext(servletContext);
 
             assert webApplicationContext != null;
+            firebaseIdTokenCacheService = webApplicationContext.getBean(FirebaseIdTokenCacheService.class);
+            firebaseIdTokenVerifierService = webApplicationContext.getBean(FirebaseIdTokenVerifierService.class);
+            asyncVerification = webApplicationContext.getEnvironment()
+                    .getProperty("auth.verification.async", Boolean.class, true);
+            asyncTimeoutMillis = webApplicationContext.getEnvironment()
+                    .getProperty("auth.verification.timeout-ms", Long.class, 10000L);
             firebaseClaimService = webApplicationContext.getBean(FirebaseClaimService.class);
         }
 
+        // Dispatched again after asynchronous verification
+        Object verifiedAuthentication = request.getAttribute(AUTHENTICATION_ATTRIBUTE);
+        if (request.getDispatcherType() == DispatcherType.ASYNC && verifiedAuthentication instanceof Authentication) {
+            request.removeAttribute(AUTHENTICATION_ATTRIBUTE);
+            SecurityContextHolder.getContext().setAuthentication((Authentication) verifiedAuthentication);
+            filterChain.doFilter(request, response);
+            return;
+        }
+
         String idToken = resolveToken(request);
 
         if (Strings.isNullOrEmpty(idToken)) {
@@ -62,8 +105,20 @@ public class FirebaseIdTokenFilter extends OncePerRequestFilter implements Filte
             return;
         }
 
+        // Tokens verified by previous requests are reused until they expire
+        Authentication authentication = firebaseIdTokenCacheService.get(idToken);
+
+        if (authentication == null && asyncVerification && request.isAsyncSupported()) {
+            verifyAsync(request, idToken);
+            return;
+        }
+
         try {
-            Authentication authentication = validateBearerAndGetAuthentication(idToken);
+            if (authentication == null) {
+                authentication = getAuthentication(idToken, firebaseIdTokenVerifierService.verify(idToken));
+                firebaseIdTokenCacheService.put(idToken, authentication);
+            }
+
             SecurityContextHolder.getContext().setAuthentication(authentication);
         } catch (Exception ex) {
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
@@ -73,6 +128,62 @@ public class FirebaseIdTokenFilter extends OncePerRequestFilter implements Filte
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Suspends the request and verifies the token on the verification pool.
+     * Once verified, the request is dispatched again with the authentication, otherwise it is completed as
+     * unauthorized.
+     *
+     * @param request Request to suspend
+     * @param idToken ID token in string format.
+     */
+    private void verifyAsync(HttpServletRequest request, String idToken) {
+        final AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(asyncTimeoutMillis);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                ((HttpServletResponse) event.getSuppliedResponse()).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                event.getAsyncContext().complete();
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        firebaseIdTokenVerifierService.verifyAsync(idToken).whenComplete((verifiedIdToken, verificationError) -> {
+            Authentication authentication = null;
+            if (verificationError == null) {
+                try {
+                    authentication = getAuthentication(idToken, verifiedIdToken);
+                    firebaseIdTokenCacheService.put(idToken, authentication);
+                } catch (EmailUnverifiedException ex) {
+                    authentication = null;
+                }
+            }
+
+            try {
+                if (authentication != null) {
+                    asyncContext.getRequest().setAttribute(AUTHENTICATION_ATTRIBUTE, authentication);
+                    asyncContext.dispatch();
+                } else {
+                    ((HttpServletResponse) asyncContext.getResponse()).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                    asyncContext.complete();
+                }
+            } catch (IllegalStateException ex) {
+                // Request has already timed out
+            }
+        });
+    }
+
     /**
      * Gets the Bearer token from a request.
      *
@@ -88,31 +199,16 @@ public class FirebaseIdTokenFilter extends OncePerRequestFilter implements Filte
     }
 
     /**
-     * Verifies the passed ID token and returns an instance of FirebaseToken if
-     * it is successfully verified.
-     *
-     * @param authToken ID token in string format.
-     * @return FirebaseToken object if the token is verified.
-     * @throws Exception If the token cannot be verified.
-     */
-    private static FirebaseToken authenticateFirebaseToken(String authToken) throws ExecutionException, InterruptedException {
-        ApiFuture<FirebaseToken> app = FirebaseAuth.getInstance().verifyIdTokenAsync(authToken);
-        return app.get();
-    }
-
-    /**
-     * Validates the passed authentication token and creates a Spring Authentication object
-     * with authorities (i.e. user roles).
+     * Creates a Spring Authentication object with authorities (i.e. user roles) for a verified token.
      *
      * @param authToken Authentication token in string format.
+     * @param idToken Verified ID token.
      * @return Spring Authentication object with authorities
-     * @throws Exception If the token cannot be verified
+     * @throws EmailUnverifiedException If the email of the user is not verified
      */
-    private Authentication validateBearerAndGetAuthentication(String authToken) throws ExecutionException, InterruptedException, EmailUnverifiedException {
+    private Authentication getAuthentication(String authToken, VerifiedIdToken idToken) throws EmailUnverifiedException {
         Authentication authentication;
 
-        FirebaseToken idToken = authenticateFirebaseToken(authToken);
-
         if (!firebaseClaimService.userEmailVerified(idToken)) {
             throw new EmailUnverifiedException("User email is not verified");
             //return null;
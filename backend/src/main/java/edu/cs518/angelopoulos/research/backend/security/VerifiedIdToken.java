@@ -0,0 +1,59 @@
+package edu.cs518.angelopoulos.research.backend.security;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Firebase ID token whose signature and claims have been verified.
+ * Used as the principal of authenticated requests.
+ */
+public class VerifiedIdToken {
+    private final Map<String, Object> claims;
+
+    public VerifiedIdToken(Map<String, Object> claims) {
+        this.claims = Collections.unmodifiableMap(claims);
+    }
+
+    /**
+     * @return Firebase user ID, the subject of the token
+     */
+    public String getUid() {
+        return (String) claims.get("sub");
+    }
+
+    /**
+     * @return Display name of the user, null if not set
+     */
+    public String getName() {
+        return (String) claims.get("name");
+    }
+
+    /**
+     * @return Email of the user, null if not set
+     */
+    public String getEmail() {
+        return (String) claims.get("email");
+    }
+
+    /**
+     * @return True if the email of the user is verified
+     */
+    public boolean isEmailVerified() {
+        return Boolean.TRUE.equals(claims.get("email_verified"));
+    }
+
+    /**
+     * @return Expiration time of the token in milliseconds since the epoch
+     */
+    public long getExpirationMillis() {
+        Object expiration = claims.get("exp");
+        return expiration instanceof Number ? ((Number) expiration).longValue() * 1000 : 0;
+    }
+
+    /**
+     * @return All claims of the token, including custom claims
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+}
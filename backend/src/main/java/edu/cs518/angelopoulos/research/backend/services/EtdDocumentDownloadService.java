@@ -0,0 +1,261 @@
+package edu.cs518.angelopoulos.research.backend.services;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves ETD document files over HTTP.
+ * Supports single byte range requests (Range, If-Range), conditional requests (ETag, Last-Modified),
+ * and zero-copy transfer of the file contents with the sendfile support of Tomcat.
+ * <p>
+ * The servlet API does not expose the socket, so containers without sendfile support get the file through the
+ * response output stream, which copies it through a buffer.
+ */
+@Service
+public class EtdDocumentDownloadService {
+    // Request attributes used by Tomcat to send a file with sendfile after the servlet returns
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Byte range of a file, with inclusive start and end.
+     */
+    private static class ByteRange {
+        final long start;
+        final long end;
+
+        ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    // Marks a Range header that must be ignored, in which case the full file is sent
+    private static final ByteRange FULL_RANGE = new ByteRange(0, -1);
+
+    /**
+     * Builds an attachment Content-Disposition with a filename quoted if it is printable ASCII,
+     * and RFC 5987 encoded otherwise.
+     */
+    private static String getContentDisposition(String filename) {
+        final ContentDisposition.Builder builder = ContentDisposition.attachment();
+        if (filename != null && !filename.isEmpty()) {
+            if (filename.chars().allMatch(c -> c >= 0x20 && c < 0x7f)) {
+                builder.filename(filename);
+            } else {
+                builder.filename(filename, StandardCharsets.UTF_8);
+            }
+        }
+
+        return builder.build().toString();
+    }
+
+    /**
+     * Writes an ETD document file to the response, honoring range and conditional request headers.
+     *
+     * @param file ETD document file
+     * @param filename Original name of the ETD document file, sent to the client instead of the name in the store
+     * @param request Request
+     * @param response Response
+     * @throws IOException If the file cannot be sent
+     */
+    public void sendDocument(File file, String filename, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        final long fileLength = file.length();
+        // HTTP dates have a resolution of seconds
+        final long lastModified = file.lastModified() / 1000 * 1000;
+        final String eTag = String.format("\"%x-%x\"", fileLength, lastModified);
+
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, getContentDisposition(filename));
+
+        ByteRange range = new ByteRange(0, fileLength - 1);
+        final String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+
+        if (rangeHeader != null && isIfRangeSatisfied(request, eTag, lastModified)) {
+            ByteRange requestedRange = parseRange(rangeHeader, fileLength);
+
+            if (requestedRange == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+                return;
+            }
+
+            if (requestedRange != FULL_RANGE) {
+                range = requestedRange;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE,
+                        String.format("bytes %d-%d/%d", range.start, range.end, fileLength));
+            }
+        }
+
+        response.setContentLengthLong(range.length());
+
+        if ("HEAD".equals(request.getMethod()) || range.length() == 0) {
+            return;
+        }
+
+        // Let the servlet container send the file with sendfile, if supported
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, range.start);
+            request.setAttribute(SENDFILE_END, range.end + 1);
+            return;
+        }
+
+        // Not zero-copy, the channel wraps the output stream of the response
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel responseChannel = Channels.newChannel(response.getOutputStream());
+
+            long position = range.start;
+            long remaining = range.length();
+            while (remaining > 0) {
+                final long transferred = fileChannel.transferTo(position, remaining, responseChannel);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    /**
+     * Parses a single range Range header.
+     *
+     * @return Requested range, {@link #FULL_RANGE} if the header is ignored, or null if it cannot be satisfied
+     */
+    private static ByteRange parseRange(String rangeHeader, long fileLength) {
+        if (!rangeHeader.startsWith("bytes=")) {
+            return FULL_RANGE;
+        }
+
+        final String rangeSpec = rangeHeader.substring("bytes=".length()).trim();
+
+        // Multiple ranges are not supported, the full file is sent instead
+        if (rangeSpec.contains(",")) {
+            return FULL_RANGE;
+        }
+
+        final int dash = rangeSpec.indexOf('-');
+        if (dash < 0) {
+            return FULL_RANGE;
+        }
+
+        try {
+            final String startSpec = rangeSpec.substring(0, dash).trim();
+            final String endSpec = rangeSpec.substring(dash + 1).trim();
+
+            long start;
+            long end;
+            if (startSpec.isEmpty()) {
+                // Suffix range, the last N bytes
+                final long suffixLength = Long.parseLong(endSpec);
+                if (suffixLength <= 0) {
+                    return null;
+                }
+                start = Math.max(0, fileLength - suffixLength);
+                end = fileLength - 1;
+            } else {
+                start = Long.parseLong(startSpec);
+                if (endSpec.isEmpty()) {
+                    end = fileLength - 1;
+                } else {
+                    end = Long.parseLong(endSpec);
+
+                    // A last position before the first position is invalid, and the header is ignored (RFC 7233 3.1)
+                    if (end < start) {
+                        return FULL_RANGE;
+                    }
+                    end = Math.min(end, fileLength - 1);
+                }
+            }
+
+            if (start >= fileLength) {
+                return null;
+            }
+
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return FULL_RANGE;
+        }
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return false;
+        }
+
+        final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.trim().equals("*") || matchesETag(ifNoneMatch, eTag);
+        }
+
+        final long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+    }
+
+    private static boolean isIfRangeSatisfied(HttpServletRequest request, String eTag, long lastModified) {
+        final String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+
+        if (ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/")) {
+            // Weak validators never match in If-Range
+            return ifRange.trim().equals(eTag);
+        }
+
+        final long ifRangeDate = getDateHeader(request, HttpHeaders.IF_RANGE);
+        return ifRangeDate != -1 && ifRangeDate == lastModified;
+    }
+
+    private static boolean matchesETag(String header, String eTag) {
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(eTag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
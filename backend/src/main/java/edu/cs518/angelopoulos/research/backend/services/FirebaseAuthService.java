@@ -1,6 +1,6 @@
 package edu.cs518.angelopoulos.research.backend.services;
 
-import com.google.firebase.auth.FirebaseToken;
+import edu.cs518.angelopoulos.research.backend.security.VerifiedIdToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
@@ -12,9 +12,23 @@ public class FirebaseAuthService {
      *
      * @return Firebase ID token of current user.
      */
-    public FirebaseToken getUserIdToken() {
+    public VerifiedIdToken getUserIdToken() {
         final Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        return (FirebaseToken) auth.getPrincipal();
+        return (VerifiedIdToken) auth.getPrincipal();
+    }
+
+    /**
+     * Gets the Firebase ID token for the current user, on endpoints where authentication is optional.
+     *
+     * @return Firebase ID token of current user, null if the request is not authenticated.
+     */
+    public VerifiedIdToken findUserIdToken() {
+        final Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || !(auth.getPrincipal() instanceof VerifiedIdToken)) {
+            return null;
+        }
+
+        return (VerifiedIdToken) auth.getPrincipal();
     }
 
     /**
@@ -3,9 +3,9 @@ package edu.cs518.angelopoulos.research.backend.services;
 import com.google.api.core.ApiFuture;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
-import com.google.firebase.auth.FirebaseToken;
 import com.google.firebase.auth.UserRecord;
 import edu.cs518.angelopoulos.research.backend.security.UserRole;
+import edu.cs518.angelopoulos.research.backend.security.VerifiedIdToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Service;
 
@@ -140,7 +140,7 @@ public class FirebaseClaimService {
      * @param idToken Firebase ID token for the user.
      * @return List of Spring SimpleGrantedAuthority.
      */
-    public List<SimpleGrantedAuthority> getUserRolesAsAuthorities(FirebaseToken idToken) {
+    public List<SimpleGrantedAuthority> getUserRolesAsAuthorities(VerifiedIdToken idToken) {
         Set<String> roles = idToken.getClaims().keySet();
 
         List<SimpleGrantedAuthority> authorities = new ArrayList<>();
@@ -159,15 +159,7 @@ public class FirebaseClaimService {
      * @param idToken Firebase ID token for the user.
      * @return True if the user's email is verified, false otherwise.
      */
-    public boolean userEmailVerified(FirebaseToken idToken) {
-        Map<String, Object> userRoles = idToken.getClaims();
-
-        Object emailVerified = userRoles.get("email_verified");
-
-        if (emailVerified != null) {
-            return (boolean) emailVerified;
-        }
-
-        return false;
+    public boolean userEmailVerified(VerifiedIdToken idToken) {
+        return idToken.isEmailVerified();
     }
 }
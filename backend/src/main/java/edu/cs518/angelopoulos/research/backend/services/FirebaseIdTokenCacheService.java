@@ -0,0 +1,119 @@
+package edu.cs518.angelopoulos.research.backend.services;
+
+import edu.cs518.angelopoulos.research.backend.security.VerifiedIdToken;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the authentication of verified Firebase ID tokens until the tokens expire,
+ * so that repeated requests with the same token are not verified again.
+ * Tokens are keyed by their SHA-256 hash, and the least recently used tokens are evicted once the cache is full.
+ */
+@Service
+public class FirebaseIdTokenCacheService {
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, CacheEntry> verifiedTokens = new LinkedHashMap<>(256, 0.75f, true);
+
+    private static class CacheEntry {
+        final Authentication authentication;
+        final long expiresAtMillis;
+
+        CacheEntry(Authentication authentication, long expiresAtMillis) {
+            this.authentication = authentication;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    @Autowired
+    public FirebaseIdTokenCacheService(@Value("${auth.token-cache.max-entries:10000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the authentication of a previously verified ID token.
+     *
+     * @param idToken ID token in string format.
+     * @return Authentication of the token, null if it is not cached or has expired.
+     */
+    public Authentication get(String idToken) {
+        final String key = hashToken(idToken);
+
+        synchronized (verifiedTokens) {
+            CacheEntry entry = verifiedTokens.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.expiresAtMillis <= System.currentTimeMillis()) {
+                verifiedTokens.remove(key);
+                return null;
+            }
+
+            return entry.authentication;
+        }
+    }
+
+    /**
+     * Caches the authentication of a verified ID token until the token expires.
+     *
+     * @param idToken ID token in string format.
+     * @param authentication Authentication built for the token, with the verified token as principal.
+     */
+    public void put(String idToken, Authentication authentication) {
+        final long expiresAtMillis = ((VerifiedIdToken) authentication.getPrincipal()).getExpirationMillis();
+        final long now = System.currentTimeMillis();
+        if (expiresAtMillis <= now) {
+            return;
+        }
+
+        final String key = hashToken(idToken);
+
+        synchronized (verifiedTokens) {
+            verifiedTokens.put(key, new CacheEntry(authentication, expiresAtMillis));
+
+            // Drop expired tokens first, then the least recently used ones
+            Iterator<Map.Entry<String, CacheEntry>> iterator = verifiedTokens.entrySet().iterator();
+            while (verifiedTokens.size() > maxEntries && iterator.hasNext()) {
+                Map.Entry<String, CacheEntry> eldest = iterator.next();
+                if (eldest.getValue().expiresAtMillis <= now) {
+                    iterator.remove();
+                }
+            }
+            iterator = verifiedTokens.entrySet().iterator();
+            while (verifiedTokens.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached tokens, so that every token is verified again.
+     */
+    public void invalidateAll() {
+        synchronized (verifiedTokens) {
+            verifiedTokens.clear();
+        }
+    }
+
+    private static String hashToken(String idToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(idToken.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package edu.cs518.angelopoulos.research.backend.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.cs518.angelopoulos.research.backend.security.FirebaseSecrets;
+import edu.cs518.angelopoulos.research.backend.security.VerifiedIdToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies Firebase ID tokens locally.
+ * <p>
+ * The public keys that sign ID tokens are held in memory and refreshed in the background shortly before they
+ * expire, so verifying a token needs no network I/O. Keys are fetched from Google, or read from a local JWKS file
+ * if {@code auth.jwks-file} is set, so that tests can sign their own tokens and run offline.
+ * <p>
+ * Tokens can also be verified on a dedicated pool with {@link #verifyAsync(String)}, so that request threads are
+ * released while verifying.
+ */
+@Service
+public class FirebaseIdTokenVerifierService {
+    private static final String GOOGLE_KEYS_URL =
+            "https://www.googleapis.com/robot/v1/metadata/x509/securetoken@system.gserviceaccount.com";
+    private static final Pattern MAX_AGE_PATTERN = Pattern.compile("max-age=(\\d+)");
+
+    private final String jwksFile;
+    private final String keysUrl;
+    private final String audience;
+    private final String issuer;
+    private final long clockSkewSeconds;
+    private final Duration refreshMargin;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-token-key-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService verificationExecutor;
+
+    private volatile Map<String, PublicKey> publicKeys = Collections.emptyMap();
+    private final AtomicLong lastUnknownKeyRefreshMillis = new AtomicLong();
+
+    Logger logger = LoggerFactory.getLogger(FirebaseIdTokenVerifierService.class);
+
+    public static class IdTokenVerificationException extends Exception {
+        public IdTokenVerificationException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+
+    /**
+     * Public keys and the time until which they may be used.
+     */
+    private static class KeySet {
+        final Map<String, PublicKey> keys;
+        final Duration maxAge;
+
+        KeySet(Map<String, PublicKey> keys, Duration maxAge) {
+            this.keys = keys;
+            this.maxAge = maxAge;
+        }
+    }
+
+    @Autowired
+    public FirebaseIdTokenVerifierService(@Value("${auth.jwks-file:}") String jwksFile,
+                                          @Value("${auth.keys-url:" + GOOGLE_KEYS_URL + "}") String keysUrl,
+                                          @Value("${auth.audience:}") String audience,
+                                          @Value("${auth.issuer:}") String issuer,
+                                          @Value("${auth.clock-skew-seconds:60}") long clockSkewSeconds,
+                                          @Value("${auth.keys.refresh-margin-seconds:300}") long refreshMarginSeconds,
+                                          @Value("${auth.verification.threads:0}") int verificationThreads,
+                                          @Value("${auth.verification.queue-size:1000}") int verificationQueueSize) {
+        this.jwksFile = jwksFile;
+        this.keysUrl = keysUrl;
+        this.audience = !audience.isEmpty() ? audience : FirebaseSecrets.getAudience();
+        this.issuer = !issuer.isEmpty() ? issuer : FirebaseSecrets.getIssuerUri();
+
+        // A missing value would accept tokens that lack the claim, so the secrets failing to load must not go unnoticed
+        if (this.audience == null || this.audience.isBlank()) {
+            throw new IllegalStateException("ID token audience is not configured, set auth.audience or provide the Firebase secrets.");
+        }
+        if (this.issuer == null || this.issuer.isBlank()) {
+            throw new IllegalStateException("ID token issuer is not configured, set auth.issuer or provide the Firebase secrets.");
+        }
+        this.clockSkewSeconds = clockSkewSeconds;
+        this.refreshMargin = Duration.ofSeconds(refreshMarginSeconds);
+
+        // Verification is CPU bound, so one thread per core unless configured
+        final int threads = verificationThreads > 0 ? verificationThreads : Runtime.getRuntime().availableProcessors();
+        this.verificationExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(verificationQueueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "id-token-verification");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PostConstruct
+    public void loadKeys() {
+        refreshKeys();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+        verificationExecutor.shutdownNow();
+    }
+
+    /**
+     * Verifies the signature and claims of an ID token.
+     *
+     * @param idToken ID token in string format.
+     * @return Verified token
+     * @throws IdTokenVerificationException If the token is malformed, not signed by a current key, expired,
+     *                                      or issued for another project.
+     */
+    public VerifiedIdToken verify(String idToken) throws IdTokenVerificationException {
+        final String[] parts = idToken.split("\\.", -1);
+        if (parts.length != 3) {
+            throw new IdTokenVerificationException("ID token is not a JWT.");
+        }
+
+        final JsonNode header;
+        final Map<String, Object> claims;
+        try {
+            header = objectMapper.readTree(decodeBase64Url(parts[0]));
+            claims = objectMapper.readValue(decodeBase64Url(parts[1]), new TypeReference<Map<String, Object>>() {});
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IdTokenVerificationException("ID token could not be decoded.");
+        }
+
+        if (!"RS256".equals(header.path("alg").asText())) {
+            throw new IdTokenVerificationException("ID token is not signed with RS256.");
+        }
+
+        final String keyId = header.path("kid").asText();
+        final PublicKey publicKey = publicKeys.get(keyId);
+        if (publicKey == null) {
+            refreshKeysForUnknownKey();
+            throw new IdTokenVerificationException("ID token is signed with an unknown key.");
+        }
+
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initVerify(publicKey);
+            signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!signature.verify(decodeBase64Url(parts[2]))) {
+                throw new IdTokenVerificationException("ID token signature is invalid.");
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IdTokenVerificationException("ID token signature could not be verified.");
+        }
+
+        verifyClaims(claims);
+
+        return new VerifiedIdToken(claims);
+    }
+
+    /**
+     * Verifies an ID token on the verification pool. If the pool is saturated, the token is verified on the
+     * calling thread instead.
+     *
+     * @param idToken ID token in string format.
+     * @return Future completed with the verified token, or exceptionally with an {@link IdTokenVerificationException}.
+     */
+    public CompletableFuture<VerifiedIdToken> verifyAsync(String idToken) {
+        CompletableFuture<VerifiedIdToken> result = new CompletableFuture<>();
+        final Runnable verification = () -> {
+            try {
+                result.complete(verify(idToken));
+            } catch (IdTokenVerificationException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        };
+
+        try {
+            verificationExecutor.execute(verification);
+        } catch (RejectedExecutionException e) {
+            verification.run();
+        }
+
+        return result;
+    }
+
+    private void verifyClaims(Map<String, Object> claims) throws IdTokenVerificationException {
+        final long now = System.currentTimeMillis() / 1000;
+
+        if (!Objects.equals(claims.get("aud"), audience)) {
+            throw new IdTokenVerificationException("ID token has an incorrect audience.");
+        }
+        if (!Objects.equals(claims.get("iss"), issuer)) {
+            throw new IdTokenVerificationException("ID token has an incorrect issuer.");
+        }
+
+        final Object subject = claims.get("sub");
+        if (!(subject instanceof String) || ((String) subject).isEmpty() || ((String) subject).length() > 128) {
+            throw new IdTokenVerificationException("ID token has an invalid subject.");
+        }
+
+        final Object expiration = claims.get("exp");
+        if (!(expiration instanceof Number) || ((Number) expiration).longValue() + clockSkewSeconds <= now) {
+            throw new IdTokenVerificationException("ID token has expired.");
+        }
+
+        final Object issuedAt = claims.get("iat");
+        if (!(issuedAt instanceof Number) || ((Number) issuedAt).longValue() - clockSkewSeconds > now) {
+            throw new IdTokenVerificationException("ID token is issued in the future.");
+        }
+    }
+
+    /**
+     * Loads the current keys and schedules the next refresh before they expire.
+     * On failure, the previous keys are kept and the refresh is retried shortly.
+     */
+    private synchronized void refreshKeys() {
+        Duration nextRefresh;
+
+        try {
+            KeySet keySet = jwksFile.isEmpty() ? fetchGoogleKeys() : readJwksFile();
+            publicKeys = Collections.unmodifiableMap(keySet.keys);
+            logger.info("Loaded {} ID token signing keys.", keySet.keys.size());
+
+            nextRefresh = keySet.maxAge.minus(refreshMargin);
+            if (nextRefresh.compareTo(Duration.ofMinutes(1)) < 0) {
+                nextRefresh = Duration.ofMinutes(1);
+            }
+        } catch (IOException | GeneralSecurityException | InterruptedException e) {
+            logger.error("Failed to load ID token signing keys.", e);
+            nextRefresh = Duration.ofSeconds(30);
+        }
+
+        if (!refreshExecutor.isShutdown()) {
+            refreshExecutor.schedule(this::refreshKeys, nextRefresh.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Refreshes the keys in the background when a token uses an unknown key, as keys may have rotated early.
+     * Limited to once per minute, so that forged tokens cannot cause a refresh per request.
+     */
+    private void refreshKeysForUnknownKey() {
+        final long now = System.currentTimeMillis();
+        final long lastRefresh = lastUnknownKeyRefreshMillis.get();
+
+        if (now - lastRefresh > 60_000 && lastUnknownKeyRefreshMillis.compareAndSet(lastRefresh, now)) {
+            refreshExecutor.execute(() -> {
+                try {
+                    KeySet keySet = jwksFile.isEmpty() ? fetchGoogleKeys() : readJwksFile();
+                    publicKeys = Collections.unmodifiableMap(keySet.keys);
+                } catch (IOException | GeneralSecurityException | InterruptedException e) {
+                    logger.warn("Failed to refresh ID token signing keys.", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fetches the X.509 certificates that sign Firebase ID tokens, valid for the max-age of the response.
+     */
+    private KeySet fetchGoogleKeys() throws IOException, GeneralSecurityException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(keysUrl)).timeout(Duration.ofSeconds(10)).GET().build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Unexpected status " + response.statusCode() + " fetching ID token signing keys.");
+        }
+
+        Map<String, String> certificates = objectMapper.readValue(response.body(), new TypeReference<Map<String, String>>() {});
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+
+        Map<String, PublicKey> keys = new HashMap<>();
+        for (Map.Entry<String, String> certificate : certificates.entrySet()) {
+            keys.put(certificate.getKey(), certificateFactory.generateCertificate(
+                    new ByteArrayInputStream(certificate.getValue().getBytes(StandardCharsets.US_ASCII))).getPublicKey());
+        }
+
+        Duration maxAge = Duration.ofHours(1);
+        Optional<String> cacheControl = response.headers().firstValue("Cache-Control");
+        if (cacheControl.isPresent()) {
+            Matcher matcher = MAX_AGE_PATTERN.matcher(cacheControl.get());
+            if (matcher.find()) {
+                maxAge = Duration.ofSeconds(Long.parseLong(matcher.group(1)));
+            }
+        }
+
+        return new KeySet(keys, maxAge);
+    }
+
+    /**
+     * Reads RSA keys from a local JWKS file. The file is read again every hour.
+     */
+    private KeySet readJwksFile() throws IOException, GeneralSecurityException {
+        JsonNode jwks = objectMapper.readTree(Files.readAllBytes(Paths.get(jwksFile)));
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+
+        Map<String, PublicKey> keys = new HashMap<>();
+        for (JsonNode jwk : jwks.path("keys")) {
+            if (!"RSA".equals(jwk.path("kty").asText())) {
+                continue;
+            }
+
+            BigInteger modulus = new BigInteger(1, decodeBase64Url(jwk.path("n").asText()));
+            BigInteger exponent = new BigInteger(1, decodeBase64Url(jwk.path("e").asText()));
+            keys.put(jwk.path("kid").asText(), keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+        }
+
+        return new KeySet(keys, Duration.ofHours(1).plus(refreshMargin));
+    }
+
+    private static byte[] decodeBase64Url(String value) {
+        return Base64.getUrlDecoder().decode(value);
+    }
+}
@@ -0,0 +1,235 @@
+package edu.cs518.angelopoulos.research.backend.security;
+
+import edu.cs518.angelopoulos.research.backend.services.FirebaseClaimService;
+import edu.cs518.angelopoulos.research.backend.services.FirebaseIdTokenCacheService;
+import edu.cs518.angelopoulos.research.backend.services.FirebaseIdTokenVerifierService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test of asynchronous token verification when verification is slow.
+ * Requests are served by a small pool standing in for the servlet container threads. Verifications are either held
+ * until the test releases them, so that behaviour does not depend on timing, or take a fixed delay, to measure the
+ * throughput of the asynchronous path against the bound of the blocking path.
+ */
+class FirebaseIdTokenFilterLoadTest {
+    private static final int REQUESTS = 50;
+    private static final int CONTAINER_THREADS = 4;
+    private static final int VERIFICATION_THREADS = 2;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private static final int THROUGHPUT_REQUESTS = 64;
+    private static final int THROUGHPUT_VERIFICATION_THREADS = 16;
+    private static final long VERIFICATION_DELAY_MILLIS = 50;
+
+    private final CountDownLatch verificationGate = new CountDownLatch(1);
+    private final AtomicInteger activeVerifications = new AtomicInteger();
+    private final AtomicInteger maxActiveVerifications = new AtomicInteger();
+
+    private FirebaseIdTokenVerifierService slowVerifier;
+    private ExecutorService containerThreads;
+
+    private final CountDownLatch suspended = new CountDownLatch(REQUESTS);
+    private final CountDownLatch authenticated = new CountDownLatch(REQUESTS);
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        slowVerifier = new FirebaseIdTokenVerifierService("", "http://localhost", "test", "test", 60, 300,
+                VERIFICATION_THREADS, REQUESTS) {
+            @Override
+            public VerifiedIdToken verify(String idToken) {
+                maxActiveVerifications.accumulateAndGet(activeVerifications.incrementAndGet(), Math::max);
+                try {
+                    verificationGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    activeVerifications.decrementAndGet();
+                }
+
+                return newVerifiedIdToken(idToken);
+            }
+        };
+        containerThreads = Executors.newFixedThreadPool(CONTAINER_THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        verificationGate.countDown();
+        slowVerifier.shutdown();
+        containerThreads.shutdownNow();
+    }
+
+    @Test
+    void containerThreadsAreReleasedWhileVerificationIsPending() throws Exception {
+        sendRequests(newFilter(slowVerifier, true), REQUESTS, suspended, authenticated);
+
+        // Far more requests than container threads are suspended while no verification can complete
+        assertTrue(suspended.await(TIMEOUT_SECONDS, TimeUnit.SECONDS),
+                "Requests held container threads while their tokens were verified");
+
+        verificationGate.countDown();
+        assertTrue(authenticated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Requests did not complete in time");
+        assertEquals(0, failures.get(), "Some requests were not authenticated");
+    }
+
+    @Test
+    void verificationPoolBoundsConcurrentVerifications() throws Exception {
+        sendRequests(newFilter(slowVerifier, true), REQUESTS, suspended, authenticated);
+        assertTrue(suspended.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Requests were not suspended");
+
+        // Every verification thread picks up a pending verification, and the rest wait in the queue
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (activeVerifications.get() < VERIFICATION_THREADS && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(VERIFICATION_THREADS, activeVerifications.get(),
+                "Pending verifications did not run on the whole verification pool");
+
+        verificationGate.countDown();
+        assertTrue(authenticated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Requests did not complete in time");
+        assertEquals(0, failures.get(), "Some requests were not authenticated");
+        assertEquals(VERIFICATION_THREADS, maxActiveVerifications.get(),
+                "More verifications ran at once than the verification pool has threads");
+    }
+
+    @Test
+    void asyncVerificationThroughputExceedsContainerThreadBound() throws Exception {
+        final FirebaseIdTokenVerifierService delayedVerifier = newDelayedVerifier();
+        try {
+            // Blocking verification holds a container thread for every verification
+            final long blockingNanos = measureRequests(newFilter(delayedVerifier, false));
+            final long blockingBoundNanos = TimeUnit.MILLISECONDS.toNanos(
+                    THROUGHPUT_REQUESTS * VERIFICATION_DELAY_MILLIS / CONTAINER_THREADS);
+            assertTrue(blockingNanos >= blockingBoundNanos, String.format(
+                    "Blocking verification of %d requests took %d ms, below its bound of %d ms",
+                    THROUGHPUT_REQUESTS, blockingNanos / 1000000, blockingBoundNanos / 1000000));
+
+            // Asynchronous verification is only bound by the verification pool, four times the container threads
+            final long asyncNanos = measureRequests(newFilter(delayedVerifier, true));
+            assertTrue(asyncNanos < blockingBoundNanos, String.format(
+                    "Asynchronous verification completed %.0f requests/s against %.0f requests/s when blocking, "
+                            + "no faster than %d container threads allow",
+                    THROUGHPUT_REQUESTS * 1e9 / asyncNanos, THROUGHPUT_REQUESTS * 1e9 / blockingNanos,
+                    CONTAINER_THREADS));
+        } finally {
+            delayedVerifier.shutdown();
+        }
+    }
+
+    private static FirebaseIdTokenFilter newFilter(FirebaseIdTokenVerifierService verifier, boolean asyncVerification) {
+        return new FirebaseIdTokenFilter(new FirebaseClaimService(), new FirebaseIdTokenCacheService(REQUESTS),
+                verifier, asyncVerification);
+    }
+
+    /**
+     * Creates a verifier whose every verification takes a fixed delay, on a pool larger than the container threads.
+     */
+    private static FirebaseIdTokenVerifierService newDelayedVerifier() {
+        return new FirebaseIdTokenVerifierService("", "http://localhost", "test", "test", 60, 300,
+                THROUGHPUT_VERIFICATION_THREADS, THROUGHPUT_REQUESTS) {
+            @Override
+            public VerifiedIdToken verify(String idToken) {
+                try {
+                    Thread.sleep(VERIFICATION_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return newVerifiedIdToken(idToken);
+            }
+        };
+    }
+
+    private static VerifiedIdToken newVerifiedIdToken(String idToken) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("sub", idToken);
+        claims.put("email_verified", true);
+        claims.put("exp", System.currentTimeMillis() / 1000 + 3600);
+        return new VerifiedIdToken(claims);
+    }
+
+    /**
+     * Sends requests with distinct tokens through the filter and measures the time until all are authenticated.
+     */
+    private long measureRequests(FirebaseIdTokenFilter filter) throws InterruptedException {
+        final CountDownLatch completed = new CountDownLatch(THROUGHPUT_REQUESTS);
+        final long startNanos = System.nanoTime();
+
+        sendRequests(filter, THROUGHPUT_REQUESTS, new CountDownLatch(THROUGHPUT_REQUESTS), completed);
+        assertTrue(completed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Requests did not complete in time");
+        assertEquals(0, failures.get(), "Some requests were not authenticated");
+
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Sends requests with distinct tokens through the filter, dispatching suspended requests again once verified.
+     */
+    private void sendRequests(FirebaseIdTokenFilter filter, int requests, CountDownLatch suspended,
+                              CountDownLatch authenticated) {
+        final String tokenPrefix = "token-" + System.nanoTime() + "-";
+
+        final FilterChain chain = (request, response) -> {
+            if (SecurityContextHolder.getContext().getAuthentication() == null) {
+                failures.incrementAndGet();
+            }
+            SecurityContextHolder.clearContext();
+            authenticated.countDown();
+        };
+
+        for (int i = 0; i < requests; ++i) {
+            final String idToken = tokenPrefix + i;
+            containerThreads.execute(() -> {
+                MockHttpServletRequest request = new MockHttpServletRequest("GET", "/private/user/get");
+                request.setAsyncSupported(true);
+                request.addHeader("Authorization", "Bearer " + idToken);
+                MockHttpServletResponse response = new MockHttpServletResponse();
+
+                try {
+                    filter.doFilter(request, response, chain);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    authenticated.countDown();
+                    return;
+                }
+
+                // Verified on the container thread, without suspending the request
+                if (!request.isAsyncStarted()) {
+                    return;
+                }
+
+                // Dispatch the request again on a container thread once verified, like the servlet container
+                ((MockAsyncContext) request.getAsyncContext()).addDispatchHandler(() ->
+                        containerThreads.execute(() -> {
+                            request.setDispatcherType(DispatcherType.ASYNC);
+                            try {
+                                filter.doFilter(request, response, chain);
+                            } catch (Exception e) {
+                                failures.incrementAndGet();
+                                authenticated.countDown();
+                            }
+                        }));
+                suspended.countDown();
+            });
+        }
+    }
+}
@@ -7,10 +7,10 @@ import org.hibernate.annotations.CreationTimestamp;
 
 import javax.persistence.*;
 import java.sql.Timestamp;
-import java.util.List;
 import java.util.Objects;
 
 @Entity
+@Table(indexes = @Index(columnList = "etd_entry_id, likes, id"))
 @NoArgsConstructor
 public class EtdClaimComment {
     @Id
@@ -48,35 +48,20 @@ public class EtdClaimComment {
     @Getter @Setter
     private Long likes;
 
-    @ManyToMany(fetch = FetchType.LAZY, mappedBy = "likedEtdClaimComments")
-    @Getter
-    private List<User> usersLiked;
-
-    @ManyToMany(fetch = FetchType.LAZY, mappedBy = "dislikedEtdClaimComments")
-    @Getter
-    private List<User> usersDisliked;
-
     @ManyToOne(fetch = FetchType.LAZY)
     @Getter @Setter
     private EtdEntry etdEntry;
 
-    public void like() {
-        ++likes;
-    }
-    public void dislike() {
-        --likes;
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         EtdClaimComment that = (EtdClaimComment) o;
-        return id.equals(that.id) && Objects.equals(user, that.user);
+        return Objects.equals(id, that.id);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, user);
+        return Objects.hash(id);
     }
 }
@@ -0,0 +1,62 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page of the ETD claim comments of an entry, retrieved with a keyset cursor.
+ * <p>
+ * When sorted by likes, the keyset is the persisted like count, which changes whenever pending likes are flushed.
+ * A comment whose likes change between two pages can move across the cursor, and be skipped or returned twice.
+ * Sorting by recency is stable.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+public class EtdClaimCommentPage {
+    /**
+     * Order of the comments of an entry.
+     */
+    public enum Sort {
+        RECENT,
+
+        /**
+         * Most liked first. Not stable while likes are flushed, see {@link EtdClaimCommentPage}.
+         */
+        LIKES
+    }
+
+    @Getter
+    private List<EtdClaimCommentSummary> comments;
+
+    /**
+     * Opaque cursor pointing after the last comment of this page, null if there are no more comments.
+     */
+    @Getter
+    private String nextCursor;
+
+    /**
+     * Encodes the sort values of a comment (likes and ID) into an opaque cursor.
+     *
+     * @param likes Likes of the comment
+     * @param id ID of the comment
+     * @return Opaque cursor
+     */
+    public static String encodeCursor(final long likes, final long id) {
+        return KeysetCursor.encode(likes, id);
+    }
+
+    /**
+     * Decodes an opaque cursor into the sort values (likes and ID) to continue after.
+     *
+     * @param cursor Opaque cursor
+     * @return Sort values to continue after
+     * @throws IllegalArgumentException If the cursor is malformed
+     */
+    public static long[] decodeCursor(final String cursor) {
+        final String[] parts = KeysetCursor.decode(cursor, 2);
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
+}
@@ -0,0 +1,43 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.sql.Timestamp;
+
+/**
+ * Projection of an ETD claim comment together with its author, read in a single query.
+ */
+@AllArgsConstructor
+public class EtdClaimCommentSummary {
+    @Getter
+    private Long id;
+
+    @Getter
+    private String authorId;
+
+    @Getter
+    private String authorName;
+
+    @Getter
+    private String claim;
+
+    @Getter
+    private EtdClaimReproducible reproducible;
+
+    @Getter
+    private String proofSourceCodeUrl;
+
+    @Getter
+    private String proofDatasetUrl;
+
+    @Getter
+    private String results;
+
+    @Getter @Setter
+    private Long likes;
+
+    @Getter
+    private Timestamp createdAt;
+}
@@ -0,0 +1,65 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Like or dislike of an ETD claim comment by a user. A user has at most one vote per comment.
+ */
+@Entity
+@NoArgsConstructor
+public class EtdClaimCommentVote {
+    @Embeddable
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+        @Getter
+        private Long userId;
+
+        @Getter
+        private Long etdClaimCommentId;
+
+        public Key(Long userId, Long etdClaimCommentId) {
+            this.userId = userId;
+            this.etdClaimCommentId = etdClaimCommentId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(userId, key.userId) && Objects.equals(etdClaimCommentId, key.etdClaimCommentId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, etdClaimCommentId);
+        }
+    }
+
+    @EmbeddedId
+    @Getter
+    private Key id;
+
+    @MapsId("userId")
+    @ManyToOne(fetch = FetchType.LAZY)
+    @Getter
+    private User user;
+
+    @MapsId("etdClaimCommentId")
+    @ManyToOne(fetch = FetchType.LAZY)
+    @Getter
+    private EtdClaimComment etdClaimComment;
+
+    /**
+     * Value of the vote, {@link EtdClaimCommentLikeStatus#LIKED} or {@link EtdClaimCommentLikeStatus#DISLIKED}.
+     */
+    @Column(nullable = false)
+    @Getter @Setter
+    private Integer direction;
+}
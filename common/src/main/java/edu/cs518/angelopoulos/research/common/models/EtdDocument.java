@@ -6,6 +6,7 @@ import lombok.Setter;
 import javax.persistence.*;
 
 @Entity
+@Table(indexes = @Index(columnList = "contentHash"))
 public class EtdDocument {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -15,6 +16,13 @@ public class EtdDocument {
     @Getter @Setter
     private String filename;
 
+    /**
+     * SHA-256 hash of the document file. Null if the file is stored in the flat layout.
+     */
+    @Column(length = 64)
+    @Getter @Setter
+    private String contentHash;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @Getter @Setter
     private EtdEntry etdEntry;
@@ -6,6 +6,8 @@ import lombok.*;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
 
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -13,16 +15,32 @@ import javax.persistence.Id;
 import java.util.Date;
 import java.util.List;
 
-@Document(indexName = "etd_entries")
+/**
+ * Metadata of an ETD entry, as indexed in ElasticSearch.
+ * The index is not created from the field annotations, but by
+ * {@link edu.cs518.angelopoulos.research.common.services.EtdEntryMetaIndexManager} from its index definition.
+ */
+@Document(indexName = EtdEntryMeta.INDEX_NAME, createIndex = false)
 @ToString
 public class EtdEntryMeta {
+    /**
+     * Alias of the live versioned index, used for all reads and writes.
+     */
+    public static final String INDEX_NAME = "etd_entries";
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Long id;
 
     ///////////////////////////////////////////////////////////
 
-    @Field(type = FieldType.Text)
+    /**
+     * Also indexed as search-as-you-type in the "title.suggest" subfield, for prefix suggestions.
+     */
+    @MultiField(
+            mainField = @Field(type = FieldType.Text),
+            otherFields = {@InnerField(suffix = "suggest", type = FieldType.Search_As_You_Type)}
+    )
     @JsonProperty("title")
     private String title;
 
@@ -0,0 +1,100 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.springframework.data.elasticsearch.core.SearchHits;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counts of the results of an advanced search, grouped by the values of the filterable fields.
+ * Computed by Elasticsearch in the same request as the results.
+ */
+@NoArgsConstructor
+public class EtdEntryMetaFacets {
+    /**
+     * Names of the search aggregations the facets are read from.
+     */
+    public static final String DEGREE_LEVEL = "degreeLevel";
+    public static final String DEGREE_NAME = "degreeName";
+    public static final String TYPE = "type";
+    public static final String DEPARTMENT = "department";
+    public static final String PUBLISHER = "publisher";
+    public static final String YEAR_ISSUED = "yearIssued";
+
+    /**
+     * A value of a field and the number of results that have it.
+     */
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Bucket {
+        @Getter
+        private String key;
+
+        @Getter
+        private Long count;
+    }
+
+    @Getter
+    private List<Bucket> degreeLevel;
+
+    @Getter
+    private List<Bucket> degreeName;
+
+    @Getter
+    private List<Bucket> type;
+
+    @Getter
+    private List<Bucket> department;
+
+    @Getter
+    private List<Bucket> publisher;
+
+    @Getter
+    private List<Bucket> yearIssued;
+
+    /**
+     * Reads the facets from the aggregations of a search.
+     *
+     * @param searchHits Search hits returned with the aggregations
+     * @return Facets, with empty bucket lists if the search had no aggregations
+     */
+    public static EtdEntryMetaFacets from(SearchHits<?> searchHits) {
+        final Aggregations aggregations = searchHits.getAggregations();
+
+        EtdEntryMetaFacets facets = new EtdEntryMetaFacets();
+        facets.degreeLevel = getBuckets(aggregations, DEGREE_LEVEL);
+        facets.degreeName = getBuckets(aggregations, DEGREE_NAME);
+        facets.type = getBuckets(aggregations, TYPE);
+        facets.department = getBuckets(aggregations, DEPARTMENT);
+        facets.publisher = getBuckets(aggregations, PUBLISHER);
+        facets.yearIssued = getBuckets(aggregations, YEAR_ISSUED);
+
+        return facets;
+    }
+
+    private static List<Bucket> getBuckets(Aggregations aggregations, String name) {
+        if (aggregations == null) {
+            return Collections.emptyList();
+        }
+
+        final Aggregation aggregation = aggregations.get(name);
+        if (!(aggregation instanceof MultiBucketsAggregation)) {
+            return Collections.emptyList();
+        }
+
+        List<? extends MultiBucketsAggregation.Bucket> aggregationBuckets = ((MultiBucketsAggregation) aggregation).getBuckets();
+        List<Bucket> buckets = new ArrayList<>(aggregationBuckets.size());
+        for (MultiBucketsAggregation.Bucket bucket : aggregationBuckets) {
+            buckets.add(new Bucket(bucket.getKeyAsString(), bucket.getDocCount()));
+        }
+
+        return buckets;
+    }
+}
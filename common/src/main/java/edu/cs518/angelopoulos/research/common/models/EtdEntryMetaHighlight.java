@@ -0,0 +1,52 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Highlighted fragments of a search result, with matched terms wrapped in {@code <em>} tags.
+ * The fragments are HTML encoded, so that they can be displayed as is.
+ */
+@NoArgsConstructor
+public class EtdEntryMetaHighlight {
+    /**
+     * Names of the highlighted fields in ElasticSearch.
+     */
+    public static final String TITLE = "title";
+    public static final String DESCRIPTION_ABSTRACT = "descriptionAbstract";
+
+    /**
+     * Highlighted title, null if the title did not match.
+     */
+    @Getter
+    @JsonProperty("title")
+    private String title;
+
+    /**
+     * Best matching fragments of the abstract, or its beginning if it did not match.
+     */
+    @Getter
+    @JsonProperty("description_abstract")
+    private List<String> descriptionAbstract;
+
+    /**
+     * Reads the highlight of a search hit.
+     *
+     * @param highlightFields Highlighted fragments of the hit by field name
+     * @return Highlight of the hit
+     */
+    public static EtdEntryMetaHighlight from(Map<String, List<String>> highlightFields) {
+        EtdEntryMetaHighlight highlight = new EtdEntryMetaHighlight();
+
+        final List<String> titleFragments = highlightFields.get(TITLE);
+        highlight.title = titleFragments != null && !titleFragments.isEmpty() ? titleFragments.get(0) : null;
+        highlight.descriptionAbstract = highlightFields.getOrDefault(DESCRIPTION_ABSTRACT, Collections.emptyList());
+
+        return highlight;
+    }
+}
@@ -0,0 +1,56 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page of EtdEntryMeta results retrieved with an Elasticsearch search_after cursor.
+ * Used for deep paging, where from/size paging becomes too expensive.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+public class EtdEntryMetaSearchAfterPage {
+    @Getter
+    private List<EtdEntryMeta> results;
+
+    @Getter
+    private Long totalResults;
+
+    /**
+     * Opaque cursor pointing after the last result of this page, null if there are no more results.
+     */
+    @Getter
+    private String nextCursor;
+
+    /**
+     * Highlighted fragments of each result.
+     */
+    @Getter
+    private List<EtdEntryMetaHighlight> highlights;
+
+    /**
+     * Encodes the sort values of a search hit (score and ID) into an opaque cursor.
+     *
+     * @param score Score of the hit
+     * @param id ID of the hit
+     * @return Opaque cursor
+     */
+    public static String encodeCursor(final float score, final long id) {
+        return KeysetCursor.encode(score, id);
+    }
+
+    /**
+     * Decodes an opaque cursor into the sort values (score and ID) to search after.
+     *
+     * @param cursor Opaque cursor
+     * @return Sort values to search after
+     * @throws IllegalArgumentException If the cursor is malformed
+     */
+    public static Object[] decodeCursor(final String cursor) {
+        final String[] parts = KeysetCursor.decode(cursor, 2);
+        return new Object[]{Float.parseFloat(parts[0]), Long.parseLong(parts[1])};
+    }
+}
@@ -0,0 +1,67 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * Compact projection of EtdEntryMeta with only the fields needed to display a search result.
+ */
+@NoArgsConstructor
+public class EtdEntryMetaSearchCard {
+    /**
+     * Source fields that must be fetched from ElasticSearch to build a search card.
+     */
+    public static final String[] SOURCE_INCLUDES = {
+            "id", "title", "contributorAuthor", "contributorDepartment", "dateIssued", "degreeLevel", "degreeName"
+    };
+
+    @Getter
+    @JsonProperty("id")
+    private Long id;
+
+    @Getter
+    @JsonProperty("title")
+    private String title;
+
+    @Getter
+    @JsonProperty("contributor_author")
+    private String contributorAuthor;
+
+    @Getter
+    @JsonProperty("contributor_department")
+    private String contributorDepartment;
+
+    @Getter
+    @JsonProperty("date_issued")
+    private Date dateIssued;
+
+    @Getter
+    @JsonProperty("degree_level")
+    private String degreeLevel;
+
+    @Getter
+    @JsonProperty("degree_name")
+    private String degreeName;
+
+    /**
+     * Creates a search card from ETD entry metadata.
+     *
+     * @param etdEntryMeta ETD entry metadata, possibly only containing the {@link #SOURCE_INCLUDES} fields
+     * @return Search card
+     */
+    public static EtdEntryMetaSearchCard from(final EtdEntryMeta etdEntryMeta) {
+        EtdEntryMetaSearchCard card = new EtdEntryMetaSearchCard();
+        card.id = etdEntryMeta.getId();
+        card.title = etdEntryMeta.getTitle();
+        card.contributorAuthor = etdEntryMeta.getContributorAuthor();
+        card.contributorDepartment = etdEntryMeta.getContributorDepartment();
+        card.dateIssued = etdEntryMeta.getDateIssued();
+        card.degreeLevel = etdEntryMeta.getDegreeLevel();
+        card.degreeName = etdEntryMeta.getDegreeName();
+
+        return card;
+    }
+}
@@ -0,0 +1,26 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Title suggestion returned while the user types a search.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+public class EtdEntryMetaSuggestion {
+    /**
+     * Source fields that must be fetched from ElasticSearch to build a suggestion.
+     */
+    public static final String[] SOURCE_INCLUDES = {"id", "title"};
+
+    @Getter
+    @JsonProperty("id")
+    private Long id;
+
+    @Getter
+    @JsonProperty("title")
+    private String title;
+}
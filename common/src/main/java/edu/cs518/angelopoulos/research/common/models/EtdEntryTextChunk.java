@@ -0,0 +1,57 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chunk of the text extracted from an ETD document, as indexed in ElasticSearch for full-text search.
+ * The text of a document is split into chunks, so that large documents are not indexed as a single huge field.
+ */
+@AllArgsConstructor
+public class EtdEntryTextChunk {
+    public static final String INDEX_NAME = "etd_entry_texts";
+
+    @Getter
+    private Long entryId;
+
+    @Getter
+    private Long documentId;
+
+    /**
+     * Index of the chunk in its document.
+     */
+    @Getter
+    private int chunk;
+
+    /**
+     * Page of the document the chunk starts on, starting at 1.
+     */
+    @Getter
+    private int page;
+
+    @Getter
+    private String text;
+
+    /**
+     * @return ID of the chunk in the index
+     */
+    public String getId() {
+        return entryId + "_" + documentId + "_" + chunk;
+    }
+
+    /**
+     * @return Source of the chunk document in the index
+     */
+    public Map<String, Object> toSource() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("entryId", entryId);
+        source.put("documentId", documentId);
+        source.put("chunk", chunk);
+        source.put("page", page);
+        source.put("text", text);
+        return source;
+    }
+}
@@ -0,0 +1,23 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page of EtdEntryMeta results of a full-text search, ranked by the best matching text chunk of each entry.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+public class EtdEntryTextSearchPage {
+    @Getter
+    private List<EtdEntryMeta> results;
+
+    /**
+     * Approximate number of matching ETD entries.
+     */
+    @Getter
+    private Long totalResults;
+}
@@ -0,0 +1,67 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.Objects;
+
+/**
+ * ETD entry in the favorites of a user. Rows are removed by the database when the user or entry is deleted.
+ */
+@Entity
+@NoArgsConstructor
+public class FavoriteEtdEntry {
+    @Embeddable
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+        @Getter
+        private Long userId;
+
+        @Getter
+        private Long etdEntryId;
+
+        public Key(Long userId, Long etdEntryId) {
+            this.userId = userId;
+            this.etdEntryId = etdEntryId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(userId, key.userId) && Objects.equals(etdEntryId, key.etdEntryId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, etdEntryId);
+        }
+    }
+
+    @EmbeddedId
+    @Getter
+    private Key id;
+
+    @MapsId("userId")
+    @ManyToOne(fetch = FetchType.LAZY)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @Getter
+    private User user;
+
+    @MapsId("etdEntryId")
+    @ManyToOne(fetch = FetchType.LAZY)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @Getter
+    private EtdEntry etdEntry;
+
+    @CreationTimestamp
+    @Getter
+    private Timestamp createdAt;
+}
@@ -0,0 +1,50 @@
+package edu.cs518.angelopoulos.research.common.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes the sort values of the last result of a page into an opaque cursor, from which the next page continues.
+ */
+public final class KeysetCursor {
+    private static final String SEPARATOR = "_";
+
+    private KeysetCursor() { }
+
+    /**
+     * Encodes sort values into an opaque cursor.
+     *
+     * @param values Sort values, whose string forms must not contain underscores
+     * @return Opaque cursor
+     */
+    public static String encode(final Object... values) {
+        final StringBuilder cursor = new StringBuilder();
+        for (Object value : values) {
+            if (cursor.length() > 0) {
+                cursor.append(SEPARATOR);
+            }
+            cursor.append(value);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes an opaque cursor into the string forms of its sort values.
+     *
+     * @param cursor Opaque cursor
+     * @param valueCount Expected number of sort values
+     * @return String forms of the sort values
+     * @throws IllegalArgumentException If the cursor is malformed
+     */
+    public static String[] decode(final String cursor, final int valueCount) {
+        final String decodedCursor = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        final String[] parts = decodedCursor.split(SEPARATOR, -1);
+
+        if (parts.length != valueCount) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+
+        return parts;
+    }
+}
@@ -28,22 +28,10 @@ public class User {
     @Getter
     private List<EtdEntry> createdEtdEntries;
 
-    @OneToMany(fetch = FetchType.LAZY)
-    @Getter
-    private List<EtdEntry> favoriteEtdEntries;
-
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "user")
     @Getter
     private List<EtdClaimComment> etdClaimComments;
 
-    @ManyToMany(fetch = FetchType.LAZY)
-    @Getter
-    private List<EtdClaimComment> likedEtdClaimComments;
-
-    @ManyToMany(fetch = FetchType.LAZY)
-    @Getter
-    private List<EtdClaimComment> dislikedEtdClaimComments;
-
     @CreationTimestamp
     @Getter
     private Timestamp createdAt;
@@ -63,13 +51,14 @@ public class User {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        // Lazy associations are proxies of a subclass, and must be compared by their ID getter
+        if (!(o instanceof User)) return false;
         User user = (User) o;
-        return id.equals(user.id) && firebaseId.equals(user.firebaseId) && Objects.equals(fullName, user.fullName) && Objects.equals(createdEtdEntries, user.createdEtdEntries) && Objects.equals(etdClaimComments, user.etdClaimComments) && Objects.equals(createdAt, user.createdAt) && Objects.equals(updatedAt, user.updatedAt);
+        return id != null && id.equals(user.getId());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, firebaseId, fullName, createdEtdEntries, etdClaimComments, createdAt, updatedAt);
+        return Objects.hash(id);
     }
 }
@@ -1,10 +1,33 @@
 package edu.cs518.angelopoulos.research.common.repositories;
 
 import edu.cs518.angelopoulos.research.common.models.EtdClaimComment;
+import edu.cs518.angelopoulos.research.common.models.EtdClaimCommentSummary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
 public interface EtdClaimCommentRepository extends CrudRepository<EtdClaimComment, Long> {
+    String SUMMARY_SELECT = "SELECT new edu.cs518.angelopoulos.research.common.models.EtdClaimCommentSummary(" +
+            "c.id, u.firebaseId, u.fullName, c.claim, c.reproducible, c.proofSourceCodeUrl, c.proofDatasetUrl, " +
+            "c.results, c.likes, c.createdAt) FROM EtdClaimComment c JOIN c.user u ";
+
     List<EtdClaimComment> findAllByIdIn(List<Long> ids);
+
+    /**
+     * Gets the comments of an entry, newest first. IDs are assigned in creation order.
+     */
+    @Query(SUMMARY_SELECT + "WHERE c.etdEntry.id = :entryId AND c.id < :afterId ORDER BY c.id DESC")
+    List<EtdClaimCommentSummary> findEntryCommentsByRecency(@Param("entryId") Long entryId,
+                                                            @Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Gets the comments of an entry, most liked first.
+     */
+    @Query(SUMMARY_SELECT + "WHERE c.etdEntry.id = :entryId " +
+            "AND (c.likes < :afterLikes OR (c.likes = :afterLikes AND c.id < :afterId)) ORDER BY c.likes DESC, c.id DESC")
+    List<EtdClaimCommentSummary> findEntryCommentsByLikes(@Param("entryId") Long entryId, @Param("afterLikes") Long afterLikes,
+                                                          @Param("afterId") Long afterId, Pageable pageable);
 }
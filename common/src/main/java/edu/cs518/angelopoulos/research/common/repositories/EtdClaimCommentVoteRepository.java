@@ -0,0 +1,59 @@
+package edu.cs518.angelopoulos.research.common.repositories;
+
+import edu.cs518.angelopoulos.research.common.models.EtdClaimCommentVote;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface EtdClaimCommentVoteRepository extends CrudRepository<EtdClaimCommentVote, EtdClaimCommentVote.Key> {
+    /**
+     * Direction of the vote of a user on a comment.
+     */
+    interface CommentVoteDirection {
+        Long getCommentId();
+        Integer getDirection();
+    }
+
+    /**
+     * Gets the votes of a user on specific comments. Served by the (user_id, etd_claim_comment_id) primary key.
+     *
+     * @return Votes of the user, comments without a vote are omitted
+     */
+    @Query("SELECT v.id.etdClaimCommentId AS commentId, v.direction AS direction FROM EtdClaimCommentVote v " +
+            "WHERE v.id.userId = :userId AND v.id.etdClaimCommentId IN :commentIds")
+    List<CommentVoteDirection> findVoteDirections(@Param("userId") Long userId, @Param("commentIds") Collection<Long> commentIds);
+
+    /**
+     * Inserts a vote, unless the user has already voted on the comment.
+     *
+     * @return 1 if the vote was inserted, 0 otherwise
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO etd_claim_comment_vote (user_id, etd_claim_comment_id, direction) " +
+            "VALUES (:userId, :commentId, :direction)", nativeQuery = true)
+    int insertVote(@Param("userId") Long userId, @Param("commentId") Long commentId, @Param("direction") int direction);
+
+    /**
+     * Changes the direction of an existing vote.
+     *
+     * @return 1 if the vote was changed, 0 if there is no vote or it already has the direction
+     */
+    @Modifying
+    @Query(value = "UPDATE etd_claim_comment_vote SET direction = :direction " +
+            "WHERE user_id = :userId AND etd_claim_comment_id = :commentId AND direction <> :direction", nativeQuery = true)
+    int changeVote(@Param("userId") Long userId, @Param("commentId") Long commentId, @Param("direction") int direction);
+
+    /**
+     * Deletes a vote with a specific direction.
+     *
+     * @return 1 if the vote was deleted, 0 if there is no such vote
+     */
+    @Modifying
+    @Query(value = "DELETE FROM etd_claim_comment_vote " +
+            "WHERE user_id = :userId AND etd_claim_comment_id = :commentId AND direction = :direction", nativeQuery = true)
+    int deleteVote(@Param("userId") Long userId, @Param("commentId") Long commentId, @Param("direction") int direction);
+}
@@ -1,7 +1,17 @@
 package edu.cs518.angelopoulos.research.common.repositories;
 
 import edu.cs518.angelopoulos.research.common.models.EtdDocument;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.List;
+
 public interface EtdDocumentRepository extends CrudRepository<EtdDocument, Long> {
+    List<EtdDocument> findAllByEtdEntryId(Long etdEntryId);
+
+    long countByContentHash(String contentHash);
+
+    List<EtdDocument> findAllByContentHashIsNullAndIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    List<EtdDocument> findAllByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
 }
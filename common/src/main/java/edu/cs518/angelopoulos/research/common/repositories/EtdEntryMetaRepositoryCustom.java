@@ -1,13 +1,21 @@
 package edu.cs518.angelopoulos.research.common.repositories;
 
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchAfterPage;
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchQuery;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSuggestion;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryTextSearchPage;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.core.SearchPage;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface EtdEntryMetaRepositoryCustom {
-    SearchPage<EtdEntryMeta> simpleSearch(final String title, Pageable pageable);
-    SearchPage<EtdEntryMeta> advancedSearch(EtdEntryMetaSearchQuery query, Pageable pageable);
+    SearchPage<EtdEntryMeta> simpleSearch(final String title, Pageable pageable, final boolean fullSource);
+    EtdEntryMetaSearchAfterPage simpleSearchAfter(final String title, final String cursor, final int pageSize, final boolean fullSource);
+    SearchPage<EtdEntryMeta> advancedSearch(EtdEntryMetaSearchQuery query, Pageable pageable, final boolean fullSource);
+    List<EtdEntryMetaSuggestion> suggestTitles(final String prefix, final int size);
+    EtdEntryTextSearchPage fullTextSearch(final String text, final int page, final int pageSize, final boolean fullSource);
 }
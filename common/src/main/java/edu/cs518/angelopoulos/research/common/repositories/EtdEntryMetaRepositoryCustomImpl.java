@@ -1,55 +1,166 @@
 package edu.cs518.angelopoulos.research.common.repositories;
 
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaFacets;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaHighlight;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchAfterPage;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchCard;
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchQuery;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSuggestion;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryTextChunk;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryTextSearchPage;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.text.Text;
 import org.elasticsearch.common.unit.Fuzziness;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.metrics.Cardinality;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.collapse.CollapseBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.document.DocumentAdapters;
 import org.springframework.data.elasticsearch.core.SearchHitSupport;
 import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.data.elasticsearch.core.SearchPage;
 import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class EtdEntryMetaRepositoryCustomImpl implements EtdEntryMetaRepositoryCustom {
+    /**
+     * Maximum number of values returned for each terms facet.
+     */
+    private static final int FACET_SIZE = 20;
+
+    /**
+     * Size in characters and number of the highlighted fragments of the abstract.
+     */
+    private static final int ABSTRACT_FRAGMENT_SIZE = 150;
+    private static final int ABSTRACT_FRAGMENTS = 2;
+
     private final ElasticsearchOperations elasticsearch;
+    private final RestHighLevelClient elasticsearchClient;
 
     @Autowired
-    public EtdEntryMetaRepositoryCustomImpl(ElasticsearchOperations elasticsearch) {
+    public EtdEntryMetaRepositoryCustomImpl(ElasticsearchOperations elasticsearch, RestHighLevelClient elasticsearchClient) {
         this.elasticsearch = elasticsearch;
+        this.elasticsearchClient = elasticsearchClient;
     }
 
     /**
-     * Performs a simple search by title.
+     * Performs a simple search by title. Only the requested page is fetched from ElasticSearch.
      *
      * @param title Title
      * @param pageable Pageable
+     * @param fullSource Whether to fetch the full documents, or only the search card fields
      * @return Page with EtdEntryMeta results.
      */
     @Override
-    public SearchPage<EtdEntryMeta> simpleSearch(String title, Pageable pageable) {
+    public SearchPage<EtdEntryMeta> simpleSearch(String title, Pageable pageable, boolean fullSource) {
         NativeSearchQueryBuilder searchQueryBuilder = new NativeSearchQueryBuilder();
-        searchQueryBuilder.withQuery(QueryBuilders.matchQuery("title", title).fuzziness(Fuzziness.ONE).prefixLength(1));
+        searchQueryBuilder.withQuery(buildTitleQuery(title));
+        searchQueryBuilder.withSort(SortBuilders.scoreSort());
+        searchQueryBuilder.withSort(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+        searchQueryBuilder.withPageable(pageable);
+        searchQueryBuilder.withHighlightBuilder(buildHighlight(title));
+        if (!fullSource) {
+            searchQueryBuilder.withSourceFilter(new FetchSourceFilter(EtdEntryMetaSearchCard.SOURCE_INCLUDES, null));
+        }
 
         NativeSearchQuery searchQuery = searchQueryBuilder.build();
 
-        SearchHits<EtdEntryMeta> searchHits = elasticsearch.search(searchQuery, EtdEntryMeta.class, IndexCoordinates.of("etd_entries"));
+        SearchHits<EtdEntryMeta> searchHits = elasticsearch.search(searchQuery, EtdEntryMeta.class, IndexCoordinates.of(EtdEntryMeta.INDEX_NAME));
         return SearchHitSupport.searchPageFor(searchHits, pageable);
     }
 
+    /**
+     * Performs a simple search by title, returning the page of results after the given cursor.
+     * Unlike from/size paging, the cost of a page does not grow with its depth.
+     *
+     * @param title Title
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     * @param pageSize Size of the page to return
+     * @param fullSource Whether to fetch the full documents, or only the search card fields
+     * @return Page with EtdEntryMeta results and the cursor for the next page.
+     */
+    @Override
+    public EtdEntryMetaSearchAfterPage simpleSearchAfter(String title, String cursor, int pageSize, boolean fullSource) {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .query(buildTitleQuery(title))
+                .sort(SortBuilders.scoreSort())
+                .sort(SortBuilders.fieldSort("id").order(SortOrder.ASC))
+                .size(pageSize)
+                .trackTotalHits(true)
+                .highlighter(buildHighlight(title));
+
+        if (!fullSource) {
+            searchSourceBuilder.fetchSource(EtdEntryMetaSearchCard.SOURCE_INCLUDES, null);
+        }
+        if (cursor != null) {
+            searchSourceBuilder.searchAfter(EtdEntryMetaSearchAfterPage.decodeCursor(cursor));
+        }
+
+        SearchResponse searchResponse;
+        try {
+            searchResponse = elasticsearchClient.search(new SearchRequest(EtdEntryMeta.INDEX_NAME).source(searchSourceBuilder), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncategorizedElasticsearchException("Failed to search ETD entries after cursor.", e);
+        }
+
+        SearchHit[] hits = searchResponse.getHits().getHits();
+        List<EtdEntryMeta> results = new ArrayList<>(hits.length);
+        List<EtdEntryMetaHighlight> highlights = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            results.add(elasticsearch.getElasticsearchConverter().read(EtdEntryMeta.class, DocumentAdapters.from(hit)));
+            highlights.add(EtdEntryMetaHighlight.from(getHighlightFragments(hit)));
+        }
+
+        // Only a full page can be followed by more results
+        String nextCursor = null;
+        if (hits.length == pageSize) {
+            Object[] lastSortValues = hits[hits.length - 1].getSortValues();
+            nextCursor = EtdEntryMetaSearchAfterPage.encodeCursor(((Number) lastSortValues[0]).floatValue(),
+                    ((Number) lastSortValues[1]).longValue());
+        }
+
+        return new EtdEntryMetaSearchAfterPage(results, searchResponse.getHits().getTotalHits().value, nextCursor,
+                highlights);
+    }
+
     /**
      * Performs an advanced search, matching all queried fields.
+     * The result counts per degree level, degree name, type, department, publisher and year issued are aggregated
+     * in the same request and can be read with {@link EtdEntryMetaFacets#from}.
      *
      * @param query Query
      * @param pageable Pageable
+     * @param fullSource Whether to fetch the full documents, or only the search card fields
      * @return Page with EtdEntryMeta results.
      */
     @Override
-    public SearchPage<EtdEntryMeta> advancedSearch(EtdEntryMetaSearchQuery query, Pageable pageable) {
+    public SearchPage<EtdEntryMeta> advancedSearch(EtdEntryMetaSearchQuery query, Pageable pageable, boolean fullSource) {
         NativeSearchQueryBuilder searchQueryBuilder = new NativeSearchQueryBuilder();
 
         BoolQueryBuilder matchAllQuery = QueryBuilders.boolQuery();
@@ -67,7 +178,7 @@ public class EtdEntryMetaRepositoryCustomImpl implements EtdEntryMetaRepositoryC
             matchAllQuery.must(QueryBuilders.matchQuery("contributorAuthor", query.getAuthor()));
         }
         if (query.getDepartment() != null) {
-            matchAllQuery.must(QueryBuilders.matchQuery("department", query.getDepartment()));
+            matchAllQuery.must(QueryBuilders.matchQuery("contributorDepartment", query.getDepartment()));
         }
         if (query.getDegreeGrantor() != null) {
             matchAllQuery.must(QueryBuilders.matchQuery("degreeGrantor", query.getDegreeGrantor()));
@@ -76,11 +187,161 @@ public class EtdEntryMetaRepositoryCustomImpl implements EtdEntryMetaRepositoryC
             matchAllQuery.must(QueryBuilders.matchQuery("publisher", query.getPublisher()));
         }
         searchQueryBuilder.withQuery(matchAllQuery);
+        searchQueryBuilder.withHighlightBuilder(buildHighlight(query.getTitle()));
+        if (!fullSource) {
+            searchQueryBuilder.withSourceFilter(new FetchSourceFilter(EtdEntryMetaSearchCard.SOURCE_INCLUDES, null));
+        }
+        searchQueryBuilder.addAggregation(AggregationBuilders.terms(EtdEntryMetaFacets.DEGREE_LEVEL).field("degreeLevel").size(FACET_SIZE));
+        searchQueryBuilder.addAggregation(AggregationBuilders.terms(EtdEntryMetaFacets.DEGREE_NAME).field("degreeName").size(FACET_SIZE));
+        searchQueryBuilder.addAggregation(AggregationBuilders.terms(EtdEntryMetaFacets.TYPE).field("type").size(FACET_SIZE));
+        searchQueryBuilder.addAggregation(AggregationBuilders.terms(EtdEntryMetaFacets.DEPARTMENT).field("contributorDepartment.keyword").size(FACET_SIZE));
+        searchQueryBuilder.addAggregation(AggregationBuilders.terms(EtdEntryMetaFacets.PUBLISHER).field("publisher.keyword").size(FACET_SIZE));
+        searchQueryBuilder.addAggregation(AggregationBuilders.dateHistogram(EtdEntryMetaFacets.YEAR_ISSUED).field("dateIssued")
+                .calendarInterval(DateHistogramInterval.YEAR).format("yyyy").minDocCount(1));
 
         NativeSearchQuery searchQuery = searchQueryBuilder.build();
         searchQuery.setPageable(pageable);
 
-        SearchHits<EtdEntryMeta> searchHits = elasticsearch.search(searchQuery, EtdEntryMeta.class, IndexCoordinates.of("etd_entries"));
+        SearchHits<EtdEntryMeta> searchHits = elasticsearch.search(searchQuery, EtdEntryMeta.class, IndexCoordinates.of(EtdEntryMeta.INDEX_NAME));
         return SearchHitSupport.searchPageFor(searchHits, pageable);
     }
+
+    /**
+     * Suggests titles starting with the given text, using the search-as-you-type subfield of the title.
+     * Only the IDs and titles are fetched, and the total hit count is not tracked, to keep it cheap enough to run on
+     * every keystroke.
+     *
+     * @param prefix Text typed so far, the last term may be incomplete
+     * @param size Maximum number of suggestions
+     * @return Suggestions, best matches first
+     */
+    @Override
+    public List<EtdEntryMetaSuggestion> suggestTitles(String prefix, int size) {
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .query(QueryBuilders.multiMatchQuery(prefix, "title.suggest", "title.suggest._2gram", "title.suggest._3gram")
+                        .type(MultiMatchQueryBuilder.Type.BOOL_PREFIX))
+                .fetchSource(EtdEntryMetaSuggestion.SOURCE_INCLUDES, null)
+                .size(size)
+                .trackTotalHits(false);
+
+        SearchResponse searchResponse;
+        try {
+            searchResponse = elasticsearchClient.search(new SearchRequest(EtdEntryMeta.INDEX_NAME).source(searchSourceBuilder), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncategorizedElasticsearchException("Failed to suggest ETD entry titles.", e);
+        }
+
+        SearchHit[] hits = searchResponse.getHits().getHits();
+        List<EtdEntryMetaSuggestion> suggestions = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            Map<String, Object> source = hit.getSourceAsMap();
+            suggestions.add(new EtdEntryMetaSuggestion(((Number) source.get("id")).longValue(), (String) source.get("title")));
+        }
+
+        return suggestions;
+    }
+
+    /**
+     * Performs a full-text search over the text extracted from the ETD documents.
+     * Text chunks are collapsed by ETD entry, so that each entry appears once, ranked by its best matching chunk.
+     *
+     * @param text Text to search for
+     * @param page Index of the page to return
+     * @param pageSize Size of the page to return
+     * @param fullSource Whether to fetch the full documents, or only the search card fields
+     * @return Page with EtdEntryMeta results.
+     */
+    @Override
+    public EtdEntryTextSearchPage fullTextSearch(String text, int page, int pageSize, boolean fullSource) {
+        SearchSourceBuilder chunkSourceBuilder = new SearchSourceBuilder()
+                .query(QueryBuilders.matchQuery("text", text))
+                .collapse(new CollapseBuilder("entryId"))
+                .fetchSource(new String[]{"entryId"}, null)
+                .from(page * pageSize)
+                .size(pageSize)
+                .aggregation(AggregationBuilders.cardinality("entries").field("entryId"));
+
+        SearchResponse chunkResponse = search(EtdEntryTextChunk.INDEX_NAME, chunkSourceBuilder);
+
+        List<String> entryIds = new ArrayList<>();
+        for (SearchHit hit : chunkResponse.getHits().getHits()) {
+            entryIds.add(String.valueOf(hit.getSourceAsMap().get("entryId")));
+        }
+        final Cardinality entries = chunkResponse.getAggregations().get("entries");
+
+        if (entryIds.isEmpty()) {
+            return new EtdEntryTextSearchPage(new ArrayList<>(), entries.getValue());
+        }
+
+        SearchSourceBuilder metaSourceBuilder = new SearchSourceBuilder()
+                .query(QueryBuilders.idsQuery().addIds(entryIds.toArray(new String[0])))
+                .size(entryIds.size());
+        if (!fullSource) {
+            metaSourceBuilder.fetchSource(EtdEntryMetaSearchCard.SOURCE_INCLUDES, null);
+        }
+
+        Map<String, EtdEntryMeta> metasById = new HashMap<>();
+        for (SearchHit hit : search(EtdEntryMeta.INDEX_NAME, metaSourceBuilder).getHits().getHits()) {
+            metasById.put(hit.getId(), elasticsearch.getElasticsearchConverter().read(EtdEntryMeta.class, DocumentAdapters.from(hit)));
+        }
+
+        // Keep the ranking of the text search
+        List<EtdEntryMeta> results = new ArrayList<>(entryIds.size());
+        for (String entryId : entryIds) {
+            EtdEntryMeta etdEntryMeta = metasById.get(entryId);
+            if (etdEntryMeta != null) {
+                results.add(etdEntryMeta);
+            }
+        }
+
+        return new EtdEntryTextSearchPage(results, entries.getValue());
+    }
+
+    private SearchResponse search(String indexName, SearchSourceBuilder searchSourceBuilder) {
+        try {
+            return elasticsearchClient.search(new SearchRequest(indexName).source(searchSourceBuilder), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncategorizedElasticsearchException("Failed to search index " + indexName + ".", e);
+        }
+    }
+
+    /**
+     * Builds the highlighting of the title and abstract of search results, using the unified highlighter on the
+     * offsets stored in the index. The abstract is highlighted with the title text, as it is not queried itself.
+     *
+     * @param title Title text searched for, may be null
+     * @return Highlight builder
+     */
+    private HighlightBuilder buildHighlight(String title) {
+        HighlightBuilder.Field abstractField = new HighlightBuilder.Field(EtdEntryMetaHighlight.DESCRIPTION_ABSTRACT)
+                .fragmentSize(ABSTRACT_FRAGMENT_SIZE)
+                .numOfFragments(ABSTRACT_FRAGMENTS)
+                .noMatchSize(ABSTRACT_FRAGMENT_SIZE);
+        if (title != null) {
+            abstractField.highlightQuery(QueryBuilders.matchQuery(EtdEntryMetaHighlight.DESCRIPTION_ABSTRACT, title));
+        }
+
+        return new HighlightBuilder()
+                .highlighterType("unified")
+                .encoder("html")
+                .field(new HighlightBuilder.Field(EtdEntryMetaHighlight.TITLE).numOfFragments(0))
+                .field(abstractField);
+    }
+
+    private static Map<String, List<String>> getHighlightFragments(SearchHit hit) {
+        Map<String, List<String>> fragments = new HashMap<>();
+        for (HighlightField highlightField : hit.getHighlightFields().values()) {
+            List<String> fieldFragments = new ArrayList<>();
+            for (Text fragment : highlightField.getFragments()) {
+                fieldFragments.add(fragment.string());
+            }
+            fragments.put(highlightField.getName(), fieldFragments);
+        }
+
+        return fragments;
+    }
+
+    private QueryBuilder buildTitleQuery(String title) {
+        return QueryBuilders.matchQuery("title", title).fuzziness(Fuzziness.ONE).prefixLength(1);
+    }
 }
@@ -1,10 +1,13 @@
 package edu.cs518.angelopoulos.research.common.repositories;
 
 import edu.cs518.angelopoulos.research.common.models.EtdEntry;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -15,4 +18,7 @@ public interface EtdEntryRepository extends CrudRepository<EtdEntry, Long> {
 
     boolean existsById(@NonNull Long id);
     void deleteById(@NonNull Long id);
+
+    @Query("SELECT e.id FROM EtdEntry e WHERE e.user.id = :userId")
+    List<Long> findIdsByUserId(@Param("userId") Long userId);
 }
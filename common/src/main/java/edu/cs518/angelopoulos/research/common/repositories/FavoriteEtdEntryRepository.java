@@ -0,0 +1,45 @@
+package edu.cs518.angelopoulos.research.common.repositories;
+
+import edu.cs518.angelopoulos.research.common.models.FavoriteEtdEntry;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface FavoriteEtdEntryRepository extends CrudRepository<FavoriteEtdEntry, FavoriteEtdEntry.Key> {
+    /**
+     * Gets the IDs of all favorite ETD entries of a user, most recently added first.
+     */
+    @Query("SELECT f.id.etdEntryId FROM FavoriteEtdEntry f WHERE f.id.userId = :userId ORDER BY f.createdAt DESC")
+    List<Long> findEtdEntryIds(@Param("userId") Long userId);
+
+    /**
+     * Gets which of specific ETD entries are favorites of a user. Served by the (user_id, etd_entry_id) primary key.
+     *
+     * @return IDs of the favorite ETD entries, other IDs are omitted
+     */
+    @Query("SELECT f.id.etdEntryId FROM FavoriteEtdEntry f WHERE f.id.userId = :userId AND f.id.etdEntryId IN :etdEntryIds")
+    List<Long> findFavoriteEtdEntryIds(@Param("userId") Long userId, @Param("etdEntryIds") Collection<Long> etdEntryIds);
+
+    /**
+     * Inserts a favorite, unless the ETD entry is already a favorite of the user.
+     *
+     * @return 1 if the favorite was inserted, 0 otherwise
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO favorite_etd_entry (user_id, etd_entry_id, created_at) " +
+            "VALUES (:userId, :etdEntryId, CURRENT_TIMESTAMP)", nativeQuery = true)
+    int insertFavorite(@Param("userId") Long userId, @Param("etdEntryId") Long etdEntryId);
+
+    /**
+     * Deletes a favorite.
+     *
+     * @return 1 if the favorite was deleted, 0 if the ETD entry is not a favorite of the user
+     */
+    @Modifying
+    @Query(value = "DELETE FROM favorite_etd_entry WHERE user_id = :userId AND etd_entry_id = :etdEntryId", nativeQuery = true)
+    int deleteFavorite(@Param("userId") Long userId, @Param("etdEntryId") Long etdEntryId);
+}
@@ -0,0 +1,149 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdClaimComment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind counter for the likes of ETD claim comments.
+ * Votes add to an in-memory striped counter per comment, so concurrent votes on a popular comment do not contend
+ * on its database row. The pending deltas are written to the database in periodic batches.
+ * <p>
+ * Deltas are only added once the vote has committed. Pending deltas are lost if the process dies before they are
+ * flushed, but the votes themselves are always stored, so the likes can be rebuilt from them.
+ */
+@Service
+public class EtdClaimCommentLikeCounterService {
+    private static final String ADD_LIKES_SQL = "UPDATE etd_claim_comment SET likes = likes + ? WHERE id = ?";
+    private static final String REBUILD_LIKES_SQL = "UPDATE etd_claim_comment c SET c.likes = " +
+            "(SELECT COALESCE(SUM(v.direction), 0) FROM etd_claim_comment_vote v WHERE v.etd_claim_comment_id = c.id)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ConcurrentHashMap<Long, PendingLikes> pendingLikes = new ConcurrentHashMap<>();
+
+    Logger logger = LoggerFactory.getLogger(EtdClaimCommentLikeCounterService.class);
+
+    /**
+     * Likes of a comment that have not been written to the database yet.
+     * A counter is retired when it is removed from the map, after which votes must go to a new counter.
+     */
+    private static class PendingLikes {
+        final LongAdder delta = new LongAdder();
+        volatile boolean retired = false;
+    }
+
+    @Autowired
+    public EtdClaimCommentLikeCounterService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Adds to the likes of a comment.
+     *
+     * @param commentId ID of the comment
+     * @param delta Number of likes to add, negative to remove likes
+     */
+    public void addLikes(final Long commentId, long delta) {
+        while (delta != 0) {
+            PendingLikes pending = pendingLikes.computeIfAbsent(commentId, id -> new PendingLikes());
+            pending.delta.add(delta);
+            if (!pending.retired) {
+                return;
+            }
+
+            // The counter was retired concurrently, move whatever the flush did not collect to a new counter
+            delta = pending.delta.sumThenReset();
+        }
+    }
+
+    /**
+     * Gets the likes of a comment, including likes not yet written to the database.
+     *
+     * @param comment Comment
+     * @return Likes of the comment
+     */
+    public Long getLikes(final EtdClaimComment comment) {
+        return getLikes(comment.getId(), comment.getLikes());
+    }
+
+    /**
+     * Gets the likes of a comment, including likes not yet written to the database.
+     *
+     * @param commentId ID of the comment
+     * @param persistedLikes Likes of the comment read from the database
+     * @return Likes of the comment
+     */
+    public Long getLikes(final Long commentId, final Long persistedLikes) {
+        final PendingLikes pending = pendingLikes.get(commentId);
+        final long likes = persistedLikes != null ? persistedLikes : 0;
+
+        return pending != null ? likes + pending.delta.sum() : likes;
+    }
+
+    /**
+     * Writes the pending likes to the database in a single batch.
+     */
+    @Scheduled(fixedDelayString = "${comments.likes.flush-interval-ms:1000}")
+    @PreDestroy
+    public synchronized void flush() {
+        Map<Long, Long> deltas = new HashMap<>();
+
+        for (Map.Entry<Long, PendingLikes> entry : pendingLikes.entrySet()) {
+            final PendingLikes pending = entry.getValue();
+            long delta = pending.delta.sumThenReset();
+
+            // Idle counters are retired, so that the map only holds recently voted comments
+            if (delta == 0) {
+                pending.retired = true;
+                pendingLikes.remove(entry.getKey(), pending);
+                delta = pending.delta.sumThenReset();
+            }
+
+            if (delta != 0) {
+                deltas.put(entry.getKey(), delta);
+            }
+        }
+
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batchArgs = new ArrayList<>(deltas.size());
+        for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+            batchArgs.add(new Object[]{delta.getValue(), delta.getKey()});
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(ADD_LIKES_SQL, batchArgs);
+        } catch (Exception e) {
+            // Keep the deltas for the next flush
+            logger.error("Failed to flush likes of {} comments.", deltas.size(), e);
+            deltas.forEach(this::addLikes);
+        }
+    }
+
+    /**
+     * Recomputes the likes of every comment from the stored votes, after flushing the pending likes.
+     * Repairs likes lost by a crash before they were flushed. Must be run while no votes are cast,
+     * as the pending likes of other processes are not visible here.
+     *
+     * @return Number of updated comments
+     */
+    public synchronized int rebuildLikes() {
+        flush();
+        return jdbcTemplate.update(REBUILD_LIKES_SQL);
+    }
+}
@@ -2,17 +2,27 @@ package edu.cs518.angelopoulos.research.common.services;
 
 import edu.cs518.angelopoulos.research.common.models.EtdClaimComment;
 import edu.cs518.angelopoulos.research.common.models.EtdClaimCommentLikeStatus;
+import edu.cs518.angelopoulos.research.common.models.EtdClaimCommentPage;
+import edu.cs518.angelopoulos.research.common.models.EtdClaimCommentSummary;
 import edu.cs518.angelopoulos.research.common.models.EtdEntry;
 import edu.cs518.angelopoulos.research.common.models.User;
 import edu.cs518.angelopoulos.research.common.repositories.EtdClaimCommentRepository;
+import edu.cs518.angelopoulos.research.common.repositories.EtdClaimCommentVoteRepository;
 import edu.cs518.angelopoulos.research.common.repositories.EtdEntryRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.transaction.Transactional;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -22,6 +32,8 @@ import java.util.stream.Collectors;
 @Service
 public class EtdClaimCommentService {
     private final EtdClaimCommentRepository etdClaimCommentRepository;
+    private final EtdClaimCommentVoteRepository etdClaimCommentVoteRepository;
+    private final EtdClaimCommentLikeCounterService etdClaimCommentLikeCounterService;
     private final EtdEntryRepository etdEntryRepository;
     private final EtdEntryService etdEntryService;
 
@@ -58,23 +70,65 @@ public class EtdClaimCommentService {
     }
 
     @Autowired
-    public EtdClaimCommentService(EtdClaimCommentRepository etdClaimCommentRepository, EtdEntryRepository etdEntryRepository, EtdEntryService etdEntryService) {
+    public EtdClaimCommentService(EtdClaimCommentRepository etdClaimCommentRepository,
+                                  EtdClaimCommentVoteRepository etdClaimCommentVoteRepository,
+                                  EtdClaimCommentLikeCounterService etdClaimCommentLikeCounterService,
+                                  EtdEntryRepository etdEntryRepository, EtdEntryService etdEntryService) {
         this.etdClaimCommentRepository = etdClaimCommentRepository;
+        this.etdClaimCommentVoteRepository = etdClaimCommentVoteRepository;
+        this.etdClaimCommentLikeCounterService = etdClaimCommentLikeCounterService;
         this.etdEntryRepository = etdEntryRepository;
         this.etdEntryService = etdEntryService;
     }
 
     /**
-     * Gets the ETD claim comments of an ETD entry.
+     * Gets a page of the ETD claim comments of an ETD entry, along with their authors.
+     * Pages are retrieved with a keyset cursor, so deep pages cost the same as the first.
      *
      * @param entryId ID of the ETD entry to get comments of
-     * @return List of ETD claim comments
+     * @param sort Order of the comments
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     * @param pageSize Size of the page
+     * @return Page of ETD claim comments
      * @throws EtdEntryService.EtdEntryNotFoundException Target ETD entry not found
+     * @throws IllegalArgumentException If the cursor is malformed
      */
-    public List<EtdClaimComment> getEntryComments(final Long entryId) throws EtdEntryService.EtdEntryNotFoundException {
-        final EtdEntry etdEntry = etdEntryService.getEtdEntry(entryId);
+    public EtdClaimCommentPage getEntryComments(final Long entryId, final EtdClaimCommentPage.Sort sort,
+                                                final String cursor, final int pageSize) throws EtdEntryService.EtdEntryNotFoundException {
+        if (!etdEntryRepository.existsById(entryId)) {
+            throw new EtdEntryService.EtdEntryNotFoundException("Could not locate ETD entry with id " + entryId);
+        }
+
+        // The first page starts after the largest possible values
+        long afterLikes = Long.MAX_VALUE;
+        long afterId = Long.MAX_VALUE;
+        if (cursor != null) {
+            final long[] sortValues = EtdClaimCommentPage.decodeCursor(cursor);
+            afterLikes = sortValues[0];
+            afterId = sortValues[1];
+        }
+
+        // One extra comment is read to know whether there is a next page
+        final Pageable pageable = PageRequest.of(0, pageSize + 1);
+        List<EtdClaimCommentSummary> comments = sort == EtdClaimCommentPage.Sort.LIKES
+                ? etdClaimCommentRepository.findEntryCommentsByLikes(entryId, afterLikes, afterId, pageable)
+                : etdClaimCommentRepository.findEntryCommentsByRecency(entryId, afterId, pageable);
+
+        String nextCursor = null;
+        if (comments.size() > pageSize) {
+            comments = new ArrayList<>(comments.subList(0, pageSize));
+
+            // The cursor holds the persisted likes, which the keyset condition compares against
+            final EtdClaimCommentSummary lastComment = comments.get(pageSize - 1);
+            nextCursor = EtdClaimCommentPage.encodeCursor(
+                    lastComment.getLikes() != null ? lastComment.getLikes() : 0, lastComment.getId());
+        }
+
+        for (EtdClaimCommentSummary comment : comments) {
+            comment.setLikes(etdClaimCommentLikeCounterService.getLikes(comment.getId(), comment.getLikes()));
+        }
 
-        return etdEntry.getClaimComments();
+        return new EtdClaimCommentPage(comments, nextCursor);
     }
 
     /**
@@ -125,13 +179,13 @@ public class EtdClaimCommentService {
     }
 
     /**
-     * Gets the likes for a list of comments.
+     * Gets the likes for a list of comments, including likes not yet written to the database.
      *
      * @param comments List of comments
      * @return List of likes
      */
     public List<Long> getCommentLikes(final List<EtdClaimComment> comments) {
-        return comments.stream().map(EtdClaimComment::getLikes).collect(Collectors.toList());
+        return comments.stream().map(etdClaimCommentLikeCounterService::getLikes).collect(Collectors.toList());
     }
 
     /**
@@ -142,15 +196,26 @@ public class EtdClaimCommentService {
      * @return List of comment like statuses
      */
     public List<EtdClaimCommentLikeStatus> getCommentLikeStatuses(final User user, final List<EtdClaimComment> comments) {
-        final List<EtdClaimComment> likedComments = user.getLikedEtdClaimComments();
-        final List<EtdClaimComment> dislikedComments = user.getDislikedEtdClaimComments();
+        if (comments.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Resolve the votes of all comments in a single query
+        final List<Long> commentIds = comments.stream().map(EtdClaimComment::getId).collect(Collectors.toList());
+        final Map<Long, Integer> voteDirections = new HashMap<>();
+        for (EtdClaimCommentVoteRepository.CommentVoteDirection vote :
+                etdClaimCommentVoteRepository.findVoteDirections(user.getId(), commentIds)) {
+            voteDirections.put(vote.getCommentId(), vote.getDirection());
+        }
 
         List<EtdClaimCommentLikeStatus> commentLikeStatuses = new ArrayList<>(comments.size());
         for (EtdClaimComment comment : comments) {
-            if (likedComments.contains(comment)) {
+            final Integer direction = voteDirections.get(comment.getId());
+
+            if (direction != null && direction == EtdClaimCommentLikeStatus.LIKED.getValue()) {
                 commentLikeStatuses.add(EtdClaimCommentLikeStatus.LIKED);
             }
-            else if (dislikedComments.contains(comment)) {
+            else if (direction != null && direction == EtdClaimCommentLikeStatus.DISLIKED.getValue()) {
                 commentLikeStatuses.add(EtdClaimCommentLikeStatus.DISLIKED);
             }
             else {
@@ -163,64 +228,34 @@ public class EtdClaimCommentService {
 
     /**
      * Adds a like by a specific user to an ETD claim comment.
+     * A previous dislike by the user is replaced.
      *
      * @param user      User that liked the comment
      * @param commentId ID of the comment
      * @throws EtdClaimCommentNotFoundException The ETD claim comment with the specified ID was not found
      * @throws EtdClaimAlreadyLikedException    The ETD claim comment has already been liked by the user
      */
+    @Transactional
     public void likeComment(User user, final Long commentId) throws EtdClaimCommentNotFoundException, EtdClaimAlreadyLikedException {
-        EtdClaimComment etdClaimComment = getComment(commentId);
-
-        // Ensure user has not already liked the comment
-        // TODO improve: not scalable. Use SQL query.
-        if (user.getLikedEtdClaimComments().contains(etdClaimComment)) {
+        if (!castVote(user, commentId, EtdClaimCommentLikeStatus.LIKED)) {
             throw new EtdClaimAlreadyLikedException("");
         }
-
-        // Remove dislike, if user has disliked the comment previously
-        // TODO improve: not scalable. Use SQL query.
-        boolean removedDislike = user.getDislikedEtdClaimComments().remove(etdClaimComment);
-        if (removedDislike) {
-            etdClaimComment.like();
-        }
-
-        // Finally, like the comment and update data
-        user.getLikedEtdClaimComments().add(etdClaimComment);
-        etdClaimComment.like();
-
-        etdClaimCommentRepository.save(etdClaimComment);
     }
 
     /**
      * Adds a dislike by a specific user to an ETD claim comment.
+     * A previous like by the user is replaced.
      *
      * @param user      User that disliked the comment
      * @param commentId ID of the comment
      * @throws EtdClaimCommentNotFoundException The ETD claim comment with the specified ID was not found
      * @throws EtdClaimAlreadyDislikedException The ETD claim comment has already been disliked by the user
      */
+    @Transactional
     public void dislikeComment(User user, final Long commentId) throws EtdClaimCommentNotFoundException, EtdClaimAlreadyDislikedException {
-        EtdClaimComment etdClaimComment = getComment(commentId);
-
-        // Ensure user has not already disliked the comment
-        // TODO improve: not scalable. Use SQL query.
-        if (user.getDislikedEtdClaimComments().contains(etdClaimComment)) {
+        if (!castVote(user, commentId, EtdClaimCommentLikeStatus.DISLIKED)) {
             throw new EtdClaimAlreadyDislikedException("");
         }
-
-        // Remove like, if the user has liked the comment previously
-        // TODO improve: not scalable. Use SQL query.
-        boolean removedLike = user.getLikedEtdClaimComments().remove(etdClaimComment);
-        if (removedLike) {
-            etdClaimComment.dislike();
-        }
-
-        // Finally, dislike the comment and update data
-        user.getDislikedEtdClaimComments().add(etdClaimComment);
-        etdClaimComment.dislike();
-
-        etdClaimCommentRepository.save(etdClaimComment);
     }
 
     /**
@@ -232,20 +267,11 @@ public class EtdClaimCommentService {
      * @throws EtdClaimCommentNotFoundException The ETD claim comment with the specified ID was not found
      * @throws EtdClaimNotLikedException        The ETD claim comment has not been previously liked by the user
      */
+    @Transactional
     public void removeCommentLike(User user, final Long commentId) throws EtdClaimCommentNotFoundException, EtdClaimNotLikedException {
-        EtdClaimComment etdClaimComment = getComment(commentId);
-
-        // Ensure user has already liked the comment
-        // TODO improve: not scalable. Use SQL query.
-        if (!user.getLikedEtdClaimComments().contains(etdClaimComment)) {
+        if (!retractVote(user, commentId, EtdClaimCommentLikeStatus.LIKED)) {
             throw new EtdClaimNotLikedException("");
         }
-
-        // Finally, remove like from the comment and update data
-        user.getLikedEtdClaimComments().remove(etdClaimComment);
-        etdClaimComment.dislike();
-
-        etdClaimCommentRepository.save(etdClaimComment);
     }
 
     /**
@@ -257,19 +283,75 @@ public class EtdClaimCommentService {
      * @throws EtdClaimCommentNotFoundException The ETD claim comment with the specified ID was not found
      * @throws EtdClaimNotDislikedException     The ETD claim comment has not been previously disliked by the user
      */
+    @Transactional
     public void removeCommentDislike(User user, final Long commentId) throws EtdClaimCommentNotFoundException, EtdClaimNotDislikedException {
-        EtdClaimComment etdClaimComment = getComment(commentId);
-
-        // Ensure user has already disliked the comment
-        // TODO improve: not scalable. Use SQL query.
-        if (!user.getDislikedEtdClaimComments().contains(etdClaimComment)) {
+        if (!retractVote(user, commentId, EtdClaimCommentLikeStatus.DISLIKED)) {
             throw new EtdClaimNotDislikedException("");
         }
+    }
+
+    /**
+     * Records the vote of a user on a comment and updates the like count of the comment.
+     * Votes are written with conditional statements, so concurrent votes never double count.
+     * The like count is updated through the write-behind counter once the vote has committed.
+     *
+     * @return True if the vote was recorded, false if the user had already voted the same way
+     */
+    private boolean castVote(User user, final Long commentId, EtdClaimCommentLikeStatus status) throws EtdClaimCommentNotFoundException {
+        // Inserts ignore foreign key errors, so the comment must be checked first
+        if (!etdClaimCommentRepository.existsById(commentId)) {
+            throw new EtdClaimCommentNotFoundException("Could not locate ETD claim comment with id " + commentId);
+        }
 
-        // Finally, remove like from the comment and update data
-        user.getDislikedEtdClaimComments().remove(etdClaimComment);
-        etdClaimComment.like();
+        final int direction = status.getValue();
+        long likesDelta;
+        if (etdClaimCommentVoteRepository.insertVote(user.getId(), commentId, direction) == 1) {
+            likesDelta = direction;
+        } else if (etdClaimCommentVoteRepository.changeVote(user.getId(), commentId, direction) == 1) {
+            // The opposite vote is replaced
+            likesDelta = 2L * direction;
+        } else {
+            return false;
+        }
 
-        etdClaimCommentRepository.save(etdClaimComment);
+        addLikesAfterCommit(commentId, likesDelta);
+        return true;
+    }
+
+    /**
+     * Removes the vote of a user on a comment and updates the like count of the comment.
+     *
+     * @return True if the vote was removed, false if the user had not voted the given way
+     */
+    private boolean retractVote(User user, final Long commentId, EtdClaimCommentLikeStatus status) throws EtdClaimCommentNotFoundException {
+        if (!etdClaimCommentRepository.existsById(commentId)) {
+            throw new EtdClaimCommentNotFoundException("Could not locate ETD claim comment with id " + commentId);
+        }
+
+        final int direction = status.getValue();
+        if (etdClaimCommentVoteRepository.deleteVote(user.getId(), commentId, direction) == 0) {
+            return false;
+        }
+
+        addLikesAfterCommit(commentId, -direction);
+        return true;
+    }
+
+    /**
+     * Adds to the likes of a comment once the transaction recording the vote has committed,
+     * so that a vote that is rolled back does not change the like count.
+     */
+    private void addLikesAfterCommit(final Long commentId, final long delta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            etdClaimCommentLikeCounterService.addLikes(commentId, delta);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                etdClaimCommentLikeCounterService.addLikes(commentId, delta);
+            }
+        });
     }
 }
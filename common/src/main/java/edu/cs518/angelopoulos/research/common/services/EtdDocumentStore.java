@@ -0,0 +1,72 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdDocument;
+import edu.cs518.angelopoulos.research.common.models.EtdEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Stores the files of ETD documents on disk.
+ * The layout is selected with the {@code data.etd.documentstore.layout} property, either {@code flat} or {@code sharded}.
+ */
+public interface EtdDocumentStore {
+    /**
+     * Gets the path of the file of an ETD document.
+     *
+     * @param etdEntry ETD entry the document belongs to
+     * @param etdDocument ETD document
+     * @return Path of the ETD document file
+     */
+    Path getDocumentPath(EtdEntry etdEntry, EtdDocument etdDocument);
+
+    /**
+     * Writes the file of a new ETD document. The document must be saved afterwards, as its content hash may be set.
+     *
+     * @param etdEntry ETD entry the document belongs to
+     * @param etdDocument ETD document
+     * @param content Content of the ETD document file
+     * @throws IOException If the file could not be written
+     */
+    void writeDocument(EtdEntry etdEntry, EtdDocument etdDocument, InputStream content) throws IOException;
+
+    /**
+     * Adds an existing file as the file of an ETD document.
+     * The document must be saved afterwards, as its content hash may be set.
+     *
+     * @param etdEntry ETD entry the document belongs to
+     * @param etdDocument ETD document
+     * @param source File to add
+     * @param keepSource Whether to leave the source file in place, or move it into the store
+     * @throws IOException If the file could not be added
+     */
+    void importDocument(EtdEntry etdEntry, EtdDocument etdDocument, Path source, boolean keepSource) throws IOException;
+
+    /**
+     * Moves a file whose SHA-256 hash is already known into the store as the file of an ETD document.
+     * The document must be saved afterwards, as its content hash may be set.
+     *
+     * @param etdEntry ETD entry the document belongs to
+     * @param etdDocument ETD document
+     * @param source File to move
+     * @param contentHash SHA-256 hash of the file
+     * @throws IOException If the file could not be moved
+     */
+    void importDocument(EtdEntry etdEntry, EtdDocument etdDocument, Path source, String contentHash) throws IOException;
+
+    /**
+     * Deletes the file of an ETD document, once it is no longer referenced.
+     * Must be called after the document has been deleted from the database.
+     *
+     * @param etdEntry ETD entry the document belonged to
+     * @param etdDocument Deleted ETD document
+     * @throws IOException If the file could not be deleted
+     */
+    void releaseDocument(EtdEntry etdEntry, EtdDocument etdDocument) throws IOException;
+
+    /**
+     * @return True if document files are stored by content, outside of the ETD entry directories
+     */
+    boolean isContentAddressed();
+}
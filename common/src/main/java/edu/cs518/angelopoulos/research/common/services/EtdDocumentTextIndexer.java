@@ -0,0 +1,321 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdDocument;
+import edu.cs518.angelopoulos.research.common.models.EtdEntry;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryTextChunk;
+import edu.cs518.angelopoulos.research.common.repositories.EtdDocumentRepository;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Extracts the text of ETD document PDFs and indexes it in chunks for full-text search.
+ * <p>
+ * Documents are read page by page, with PDFBox buffering to temporary files instead of the heap, and the text is
+ * indexed in chunks as soon as they fill up. Only the current page and chunk are held in memory, regardless of the
+ * size of the document. Extraction runs on a bounded worker pool. When its queue is full, the submitting thread
+ * extracts the document itself, which slows down producers such as the inserter instead of queueing without bound.
+ */
+@Service
+public class EtdDocumentTextIndexer {
+    public static final String DEFINITION_PATH = "elasticsearch/etd_entry_texts.json";
+
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    private final RestHighLevelClient elasticsearchClient;
+    private final EtdDocumentStore etdDocumentStore;
+    private final EtdDocumentRepository etdDocumentRepository;
+    private final EtdEntryMetaIndexManager etdEntryMetaIndexManager;
+
+    private final boolean enabled;
+    private final int chunkSize;
+
+    private final ThreadPoolExecutor extractionExecutor;
+    private final BulkProcessor bulkProcessor;
+
+    private final Object pendingLock = new Object();
+    private int pending = 0;
+
+    Logger logger = LoggerFactory.getLogger(EtdDocumentTextIndexer.class);
+
+    @Autowired
+    public EtdDocumentTextIndexer(RestHighLevelClient elasticsearchClient, EtdDocumentStore etdDocumentStore,
+                                  EtdDocumentRepository etdDocumentRepository,
+                                  EtdEntryMetaIndexManager etdEntryMetaIndexManager,
+                                  @Value("${fulltext.enabled:true}") boolean enabled,
+                                  @Value("${fulltext.chunk-size:8000}") int chunkSize,
+                                  @Value("${fulltext.extraction.threads:2}") int extractionThreads,
+                                  @Value("${fulltext.extraction.queue-size:64}") int extractionQueueSize) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.etdDocumentStore = etdDocumentStore;
+        this.etdDocumentRepository = etdDocumentRepository;
+        this.etdEntryMetaIndexManager = etdEntryMetaIndexManager;
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+
+        this.extractionExecutor = new ThreadPoolExecutor(extractionThreads, extractionThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(extractionQueueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "etd-text-extraction");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Text extraction has been shut down.");
+                    }
+                    runnable.run();
+                });
+
+        this.bulkProcessor = BulkProcessor.builder(
+                (request, bulkListener) -> elasticsearchClient.bulkAsync(request, RequestOptions.DEFAULT, bulkListener),
+                new BulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(long executionId, BulkRequest request) {
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                        if (response.hasFailures()) {
+                            logger.error("Failed to index text chunks: {}", response.buildFailureMessage());
+                        }
+                    }
+
+                    @Override
+                    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                        logger.error("Bulk request with {} text chunks failed", request.numberOfActions(), failure);
+                    }
+                })
+                .setBulkActions(500)
+                .setBulkSize(new ByteSizeValue(5, ByteSizeUnit.MB))
+                .setFlushInterval(TimeValue.timeValueSeconds(5))
+                .setConcurrentRequests(1)
+                .build();
+    }
+
+    /**
+     * Creates the text index from its index definition once the application has started, if it does not exist.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndexIfMissing() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            if (!etdEntryMetaIndexManager.indexExists(EtdEntryTextChunk.INDEX_NAME)) {
+                etdEntryMetaIndexManager.createIndex(EtdEntryTextChunk.INDEX_NAME,
+                        etdEntryMetaIndexManager.loadIndexDefinition(DEFINITION_PATH));
+            }
+        } catch (IOException e) {
+            logger.error("Failed to create index {}.", EtdEntryTextChunk.INDEX_NAME, e);
+        }
+    }
+
+    /**
+     * Queues the text of an ETD document for extraction and indexing.
+     *
+     * @param etdEntry ETD entry the document belongs to
+     * @param etdDocument ETD document, must be saved
+     */
+    public void indexDocument(final EtdEntry etdEntry, final EtdDocument etdDocument) {
+        if (!enabled) {
+            return;
+        }
+
+        final Long entryId = etdEntry.getId();
+        final Long documentId = etdDocument.getId();
+        final Path documentPath = etdDocumentStore.getDocumentPath(etdEntry, etdDocument);
+
+        synchronized (pendingLock) {
+            ++pending;
+        }
+
+        try {
+            extractionExecutor.execute(() -> {
+                try {
+                    extractAndIndex(entryId, documentId, documentPath);
+                } finally {
+                    completePending();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completePending();
+            logger.error("Failed to queue text extraction of ETD document {}.", documentId);
+        }
+    }
+
+    /**
+     * Queues the text of every ETD document for extraction and indexing. Used to backfill the text index.
+     *
+     * @return Number of queued documents
+     */
+    public long indexAllDocuments() {
+        long lastId = 0;
+        long queued = 0;
+
+        while (true) {
+            // Documents are read in ID order, so that the batches do not depend on offsets
+            List<EtdDocument> etdDocuments = etdDocumentRepository
+                    .findAllByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, BACKFILL_BATCH_SIZE));
+            if (etdDocuments.isEmpty()) {
+                return queued;
+            }
+
+            for (EtdDocument etdDocument : etdDocuments) {
+                lastId = etdDocument.getId();
+                indexDocument(etdDocument.getEtdEntry(), etdDocument);
+                ++queued;
+            }
+
+            logger.info("Queued text extraction of {} ETD documents", queued);
+        }
+    }
+
+    /**
+     * Waits until every queued document has been extracted, and sends the pending chunks.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void awaitPending() throws InterruptedException {
+        synchronized (pendingLock) {
+            while (pending > 0) {
+                pendingLock.wait();
+            }
+        }
+
+        bulkProcessor.flush();
+    }
+
+    /**
+     * Deletes the indexed text of all documents of an ETD entry.
+     *
+     * @param entryId ID of the ETD entry
+     */
+    public void deleteEntryText(final Long entryId) {
+        if (!enabled) {
+            return;
+        }
+
+        DeleteByQueryRequest request = new DeleteByQueryRequest(EtdEntryTextChunk.INDEX_NAME)
+                .setQuery(QueryBuilders.termQuery("entryId", entryId))
+                .setConflicts("proceed");
+
+        try {
+            elasticsearchClient.deleteByQuery(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            logger.error("Failed to delete text of ETD entry {}.", entryId, e);
+        }
+    }
+
+    /**
+     * Stops accepting documents, and waits for the queued documents and pending chunks to be indexed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        extractionExecutor.shutdown();
+        try {
+            extractionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            bulkProcessor.awaitClose(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void extractAndIndex(Long entryId, Long documentId, Path documentPath) {
+        if (!Files.isRegularFile(documentPath)) {
+            logger.error("File of ETD document {} is missing: {}", documentId, documentPath);
+            return;
+        }
+
+        try {
+            final int chunks = extractChunks(entryId, documentId, documentPath, chunk ->
+                    bulkProcessor.add(new IndexRequest(EtdEntryTextChunk.INDEX_NAME)
+                            .id(chunk.getId())
+                            .source(chunk.toSource())));
+            logger.debug("Extracted {} text chunks from ETD document {}", chunks, documentId);
+        } catch (IOException e) {
+            logger.error("Failed to extract text of ETD document {}.", documentId, e);
+        }
+    }
+
+    /**
+     * Extracts the text of a PDF page by page, passing on chunks of at most the chunk size as they fill up.
+     * Chunks are split at whitespace where possible, so that words are not cut in half.
+     *
+     * @return Number of extracted chunks
+     */
+    private int extractChunks(Long entryId, Long documentId, Path documentPath, Consumer<EtdEntryTextChunk> onChunk)
+            throws IOException {
+        int chunkIndex = 0;
+        int chunkPage = 1;
+        StringBuilder chunkText = new StringBuilder(chunkSize);
+
+        try (PDDocument document = PDDocument.load(documentPath.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            final int pageCount = document.getNumberOfPages();
+
+            for (int page = 1; page <= pageCount; ++page) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+
+                if (chunkText.length() == 0) {
+                    chunkPage = page;
+                }
+                chunkText.append(stripper.getText(document));
+
+                while (chunkText.length() >= chunkSize) {
+                    final int end = findChunkEnd(chunkText);
+                    onChunk.accept(new EtdEntryTextChunk(entryId, documentId, chunkIndex++, chunkPage,
+                            chunkText.substring(0, end)));
+                    chunkText.delete(0, end);
+                    chunkPage = page;
+                }
+            }
+        }
+
+        if (!chunkText.toString().isBlank()) {
+            onChunk.accept(new EtdEntryTextChunk(entryId, documentId, chunkIndex++, chunkPage, chunkText.toString()));
+        }
+
+        return chunkIndex;
+    }
+
+    private int findChunkEnd(StringBuilder text) {
+        for (int i = chunkSize; i > chunkSize / 2; --i) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                return i;
+            }
+        }
+
+        return chunkSize;
+    }
+}
@@ -0,0 +1,402 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Receives ETD document files as a sequence of chunks, written directly into the ETD document store.
+ * The SHA-256 hash of the file is computed and its PDF header validated while the chunks are written,
+ * so the completed file never has to be read again. An interrupted upload is resumed from its current offset.
+ * <p>
+ * Upload state is kept in memory, uploads do not survive a restart. Upload files left without an upload,
+ * such as by a restart, are deleted by a periodic sweep once they have not been written for the upload time to live.
+ */
+@Service
+public class EtdDocumentUploadService {
+    static final String UPLOADS_DIRECTORY = ".uploads";
+    private static final String UPLOAD_FILE_SUFFIX = ".part";
+
+    private static final byte[] PDF_MAGIC = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path uploadsDirectory;
+    private final long maxBytes;
+    private final long timeToLiveMillis;
+
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    Logger logger = LoggerFactory.getLogger(EtdDocumentUploadService.class);
+
+    public static class UploadNotFoundException extends Exception {
+        public UploadNotFoundException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+
+    public static class UploadValidationException extends Exception {
+        public UploadValidationException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+
+    public static class UploadOffsetMismatchException extends Exception {
+        public final long offset;
+
+        public UploadOffsetMismatchException(String errorMessage, long offset) {
+            super(errorMessage);
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Upload in progress.
+     */
+    public static class Upload {
+        private final String id;
+        private final String ownerId;
+        private final String filename;
+        private final Path path;
+        private final MessageDigest digest = ShardedEtdDocumentStore.newDigest();
+        private long offset = 0;
+        private boolean completing = false;
+        private volatile long lastWriteMillis = System.currentTimeMillis();
+
+        private Upload(String id, String ownerId, String filename, Path path) {
+            this.id = id;
+            this.ownerId = ownerId;
+            this.filename = filename;
+            this.path = path;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public synchronized long getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * Upload whose file has been fully received and validated.
+     */
+    public static class CompletedUpload {
+        public final String id;
+        public final String filename;
+        public final Path path;
+        public final String contentHash;
+
+        private CompletedUpload(String id, String filename, Path path, String contentHash) {
+            this.id = id;
+            this.filename = filename;
+            this.path = path;
+            this.contentHash = contentHash;
+        }
+    }
+
+    @Autowired
+    public EtdDocumentUploadService(@Value("${data.etd.documentstore}") String etdDocumentStore,
+                                    @Value("${data.etd.upload.max-bytes:536870912}") long maxBytes,
+                                    @Value("${data.etd.upload.ttl-hours:24}") long ttlHours) {
+        this.uploadsDirectory = Paths.get(etdDocumentStore).toAbsolutePath().normalize().resolve(UPLOADS_DIRECTORY);
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = ttlHours * 60 * 60 * 1000;
+    }
+
+    /**
+     * Starts a new upload.
+     *
+     * @param ownerId Firebase ID of the uploading user
+     * @param filename Name of the ETD document file
+     * @return New upload
+     * @throws UploadValidationException If the filename is not valid
+     * @throws IOException If the upload file could not be created
+     */
+    public Upload beginUpload(String ownerId, String filename) throws UploadValidationException, IOException {
+        String cleanFileName = StringUtils.cleanPath(filename);
+        if (cleanFileName.isEmpty() || cleanFileName.contains("..")) {
+            throw new UploadValidationException("ETD document filename has invalid characters.");
+        }
+        cleanFileName = Paths.get(cleanFileName).getFileName().toString();
+        if (!cleanFileName.toLowerCase().endsWith(".pdf")) {
+            throw new UploadValidationException("ETD document file must be a PDF.");
+        }
+
+        removeExpiredUploads();
+
+        final String id = UUID.randomUUID().toString();
+        Files.createDirectories(uploadsDirectory);
+        Path path = Files.createFile(uploadsDirectory.resolve(id + UPLOAD_FILE_SUFFIX));
+
+        Upload upload = new Upload(id, ownerId, cleanFileName, path);
+        uploads.put(id, upload);
+
+        return upload;
+    }
+
+    /**
+     * Gets an upload in progress.
+     *
+     * @param id ID of the upload
+     * @param ownerId Firebase ID of the uploading user
+     * @return Upload
+     * @throws UploadNotFoundException If the user has no upload with this ID
+     */
+    public Upload getUpload(String id, String ownerId) throws UploadNotFoundException {
+        Upload upload = uploads.get(id);
+        if (upload == null || !upload.ownerId.equals(ownerId)) {
+            throw new UploadNotFoundException("Could not locate upload with id " + id);
+        }
+
+        return upload;
+    }
+
+    /**
+     * Appends a chunk to an upload. The chunk must start at the current offset of the upload.
+     * If the chunk is cut short, the bytes received so far are kept and the upload can continue from its new offset.
+     *
+     * @param id ID of the upload
+     * @param ownerId Firebase ID of the uploading user
+     * @param offset Offset of the chunk in the file
+     * @param content Content of the chunk
+     * @return New offset of the upload
+     * @throws UploadNotFoundException If the user has no upload with this ID
+     * @throws UploadOffsetMismatchException If the chunk does not start at the current offset,
+     * or the upload is being completed
+     * @throws UploadValidationException If the file is not a PDF or is too large. The upload is cancelled.
+     * @throws IOException If the chunk could not be read or written
+     */
+    public long appendChunk(String id, String ownerId, long offset, InputStream content)
+            throws UploadNotFoundException, UploadOffsetMismatchException, UploadValidationException, IOException {
+        Upload upload = getUpload(id, ownerId);
+
+        synchronized (upload) {
+            if (upload.completing) {
+                throw new UploadOffsetMismatchException("Upload is being completed.", upload.offset);
+            }
+            if (offset != upload.offset) {
+                throw new UploadOffsetMismatchException("Chunk does not start at the current offset of the upload.", upload.offset);
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (FileChannel channel = FileChannel.open(upload.path, StandardOpenOption.WRITE)) {
+                channel.position(upload.offset);
+
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    if (upload.offset + read > maxBytes) {
+                        cancel(upload);
+                        throw new UploadValidationException("ETD document file is too large.");
+                    }
+                    if (!hasPdfMagic(upload.offset, buffer, read)) {
+                        cancel(upload);
+                        throw new UploadValidationException("ETD document file is not a PDF.");
+                    }
+
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+
+                    upload.digest.update(buffer, 0, read);
+                    upload.offset += read;
+                    upload.lastWriteMillis = System.currentTimeMillis();
+                }
+            }
+
+            return upload.offset;
+        }
+    }
+
+    /**
+     * Completes an upload. The upload file must be moved away by the caller, such as into the ETD document store,
+     * and the upload then finished with {@link #finishUpload(CompletedUpload)}. If that fails, the completion must be
+     * abandoned with {@link #abandonCompletion(CompletedUpload)}, so that it can be retried.
+     *
+     * @param id ID of the upload
+     * @param ownerId Firebase ID of the uploading user
+     * @param expectedContentHash SHA-256 hash of the file computed by the client, or null to skip the check
+     * @return Completed upload
+     * @throws UploadNotFoundException If the user has no upload with this ID
+     * @throws UploadValidationException If the file is incomplete, does not match the expected hash,
+     * or the upload is already being completed. The upload can still be continued.
+     */
+    public CompletedUpload completeUpload(String id, String ownerId, String expectedContentHash)
+            throws UploadNotFoundException, UploadValidationException {
+        Upload upload = getUpload(id, ownerId);
+
+        synchronized (upload) {
+            if (upload.completing) {
+                throw new UploadValidationException("Upload is already being completed.");
+            }
+            if (upload.offset < PDF_MAGIC.length) {
+                throw new UploadValidationException("ETD document file is incomplete.");
+            }
+
+            // Digest a copy, so that the upload can continue if the hash does not match
+            final String contentHash;
+            try {
+                contentHash = ShardedEtdDocumentStore.toHex(((MessageDigest) upload.digest.clone()).digest());
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (expectedContentHash != null && !expectedContentHash.equalsIgnoreCase(contentHash)) {
+                throw new UploadValidationException("ETD document file does not match the expected hash.");
+            }
+
+            upload.completing = true;
+            return new CompletedUpload(upload.id, upload.filename, upload.path, contentHash);
+        }
+    }
+
+    /**
+     * Finishes a completed upload once its file was stored, removing the upload and any file left behind.
+     *
+     * @param completedUpload Completed upload
+     */
+    public void finishUpload(CompletedUpload completedUpload) {
+        Upload upload = uploads.get(completedUpload.id);
+        if (upload != null) {
+            synchronized (upload) {
+                cancel(upload);
+            }
+        }
+    }
+
+    /**
+     * Abandons the completion of an upload whose file could not be stored. If the upload file is still there,
+     * the upload can be completed again, otherwise it is removed.
+     *
+     * @param completedUpload Completed upload
+     */
+    public void abandonCompletion(CompletedUpload completedUpload) {
+        Upload upload = uploads.get(completedUpload.id);
+        if (upload == null) {
+            return;
+        }
+
+        synchronized (upload) {
+            if (Files.exists(upload.path)) {
+                upload.completing = false;
+                upload.lastWriteMillis = System.currentTimeMillis();
+            } else {
+                logger.warn("File of upload {} was lost while completing it, removing upload.", upload.id);
+                uploads.remove(upload.id);
+            }
+        }
+    }
+
+    /**
+     * Cancels an upload and deletes its file.
+     *
+     * @param id ID of the upload
+     * @param ownerId Firebase ID of the uploading user
+     * @throws UploadNotFoundException If the user has no upload with this ID
+     */
+    public void cancelUpload(String id, String ownerId) throws UploadNotFoundException {
+        Upload upload = getUpload(id, ownerId);
+
+        synchronized (upload) {
+            cancel(upload);
+        }
+    }
+
+    private void cancel(Upload upload) {
+        uploads.remove(upload.id);
+        try {
+            Files.deleteIfExists(upload.path);
+        } catch (IOException e) {
+            logger.error("Failed to delete file of upload {}.", upload.id, e);
+        }
+    }
+
+    private void removeExpiredUploads() {
+        final long now = System.currentTimeMillis();
+
+        for (Upload upload : uploads.values()) {
+            synchronized (upload) {
+                if (!upload.completing && now - upload.lastWriteMillis > timeToLiveMillis) {
+                    logger.info("Removing expired upload {}.", upload.id);
+                    cancel(upload);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes expired uploads, and deletes upload files without an upload that have not been written for the
+     * upload time to live. Runs at startup, so that files of uploads lost by a restart are eventually deleted.
+     */
+    @Scheduled(fixedDelayString = "${data.etd.upload.sweep-interval-ms:3600000}")
+    public void sweepStaleUploads() {
+        removeExpiredUploads();
+
+        if (!Files.isDirectory(uploadsDirectory)) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        long deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(uploadsDirectory, "*" + UPLOAD_FILE_SUFFIX)) {
+            for (Path file : files) {
+                final String fileName = file.getFileName().toString();
+                final String id = fileName.substring(0, fileName.length() - UPLOAD_FILE_SUFFIX.length());
+                if (uploads.containsKey(id)) {
+                    continue;
+                }
+
+                try {
+                    if (now - Files.getLastModifiedTime(file).toMillis() > timeToLiveMillis) {
+                        Files.deleteIfExists(file);
+                        ++deleted;
+                    }
+                } catch (NoSuchFileException ignored) { }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to delete stale upload files.", e);
+        }
+
+        if (deleted > 0) {
+            logger.info("Deleted {} stale upload files", deleted);
+        }
+    }
+
+    /**
+     * Checks that the bytes of a buffer written at an offset match the PDF header, where they overlap with it.
+     */
+    private static boolean hasPdfMagic(long offset, byte[] buffer, int length) {
+        for (long position = offset; position < PDF_MAGIC.length && position < offset + length; ++position) {
+            if (buffer[(int) (position - offset)] != PDF_MAGIC[(int) position]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
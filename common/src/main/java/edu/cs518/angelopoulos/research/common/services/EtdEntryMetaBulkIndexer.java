@@ -0,0 +1,252 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.*;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bulk indexes EtdEntryMeta documents in ElasticSearch.
+ * Requests are flushed by document count, byte size or time interval, several bulk requests can be in flight
+ * at once, and items rejected by a busy cluster are retried with exponential backoff.
+ */
+@Service
+public class EtdEntryMetaBulkIndexer {
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final long CLOSE_TIMEOUT_MINUTES = 10;
+
+    private final RestHighLevelClient elasticsearchClient;
+    private final ElasticsearchOperations elasticsearch;
+
+    private final int bulkActions;
+    private final long bulkSizeMb;
+    private final long flushIntervalSeconds;
+    private final int concurrentRequests;
+    private final long retryInitialDelayMs;
+    private final int retries;
+
+    Logger logger = LoggerFactory.getLogger(EtdEntryMetaBulkIndexer.class);
+
+    /**
+     * Bulk indexing session for a single index. Must be closed to flush pending documents.
+     */
+    public class Session implements Closeable {
+        private final String indexName;
+        private final BulkProcessor bulkProcessor;
+        private final Settings previousSettings;
+
+        private final AtomicLong indexed = new AtomicLong();
+        private final Queue<Long> failedIds = new ConcurrentLinkedQueue<>();
+
+        private Session(String indexName, boolean bulkLoad, Consumer<List<Long>> onIndexed) throws IOException {
+            this.indexName = indexName;
+            this.previousSettings = bulkLoad ? disableRefreshAndReplicas(indexName) : null;
+
+            BulkProcessor.Listener listener = new BulkProcessor.Listener() {
+                @Override
+                public void beforeBulk(long executionId, BulkRequest request) {
+                    logger.debug("Sending bulk request {} with {} documents", executionId, request.numberOfActions());
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                    List<Long> indexedIds = new ArrayList<>(response.getItems().length);
+                    for (BulkItemResponse item : response.getItems()) {
+                        if (item.isFailed()) {
+                            failedIds.add(Long.parseLong(item.getId()));
+                            logger.error("Failed to index ETD entry {}: {}", item.getId(), item.getFailureMessage());
+                        } else {
+                            indexedIds.add(Long.parseLong(item.getId()));
+                        }
+                    }
+
+                    indexed.addAndGet(indexedIds.size());
+                    if (onIndexed != null) {
+                        onIndexed.accept(indexedIds);
+                    }
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                    for (DocWriteRequest<?> failedRequest : request.requests()) {
+                        failedIds.add(Long.parseLong(failedRequest.id()));
+                    }
+                    logger.error("Bulk request {} with {} documents failed", executionId, request.numberOfActions(), failure);
+                }
+            };
+
+            this.bulkProcessor = BulkProcessor.builder(
+                    (request, bulkListener) -> elasticsearchClient.bulkAsync(request, RequestOptions.DEFAULT, bulkListener),
+                    listener)
+                    .setBulkActions(bulkActions)
+                    .setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+                    .setFlushInterval(TimeValue.timeValueSeconds(flushIntervalSeconds))
+                    .setConcurrentRequests(concurrentRequests)
+                    .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(retryInitialDelayMs), retries))
+                    .build();
+        }
+
+        /**
+         * Queues a document for indexing. Blocks if the maximum number of concurrent bulk requests are in flight.
+         *
+         * @param etdEntryMeta Document to index, must have an ID
+         */
+        public void add(EtdEntryMeta etdEntryMeta) {
+            final String source = elasticsearch.getElasticsearchConverter().mapObject(etdEntryMeta).toJson();
+            bulkProcessor.add(new IndexRequest(indexName)
+                    .id(etdEntryMeta.getId().toString())
+                    .source(source, XContentType.JSON));
+        }
+
+        /**
+         * Sends the pending documents without waiting for the flush conditions.
+         */
+        public void flush() {
+            bulkProcessor.flush();
+        }
+
+        /**
+         * @return Number of documents indexed so far
+         */
+        public long getIndexed() {
+            return indexed.get();
+        }
+
+        /**
+         * @return Number of documents that failed to be indexed so far
+         */
+        public long getFailed() {
+            return failedIds.size();
+        }
+
+        /**
+         * Gets the IDs of the documents that failed to be indexed, after the retries of rejected documents.
+         * They are not retried again, as the remaining failures are not caused by a busy cluster.
+         *
+         * @return IDs of the documents that failed to be indexed so far
+         */
+        public List<Long> getFailedIds() {
+            return new ArrayList<>(failedIds);
+        }
+
+        /**
+         * Flushes the pending documents, waits for all bulk requests and restores the index settings.
+         *
+         * @throws IOException If the bulk requests did not complete in time, or the index settings could not be restored
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!bulkProcessor.awaitClose(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                    throw new IOException(String.format("Bulk requests to index %s did not complete within %d minutes.",
+                            indexName, CLOSE_TIMEOUT_MINUTES));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bulk requests to index " + indexName);
+            } finally {
+                if (previousSettings != null) {
+                    restoreSettings(indexName, previousSettings);
+                }
+            }
+        }
+    }
+
+    @Autowired
+    public EtdEntryMetaBulkIndexer(RestHighLevelClient elasticsearchClient, ElasticsearchOperations elasticsearch,
+                                   @Value("${elasticsearch.bulk.actions:5000}") int bulkActions,
+                                   @Value("${elasticsearch.bulk.size-mb:10}") long bulkSizeMb,
+                                   @Value("${elasticsearch.bulk.flush-interval-seconds:5}") long flushIntervalSeconds,
+                                   @Value("${elasticsearch.bulk.concurrent-requests:2}") int concurrentRequests,
+                                   @Value("${elasticsearch.bulk.retry-initial-delay-ms:100}") long retryInitialDelayMs,
+                                   @Value("${elasticsearch.bulk.retries:8}") int retries) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.elasticsearch = elasticsearch;
+        this.bulkActions = bulkActions;
+        this.bulkSizeMb = bulkSizeMb;
+        this.flushIntervalSeconds = flushIntervalSeconds;
+        this.concurrentRequests = concurrentRequests;
+        this.retryInitialDelayMs = retryInitialDelayMs;
+        this.retries = retries;
+    }
+
+    /**
+     * Opens a bulk indexing session.
+     *
+     * @param indexName Index to write to
+     * @param bulkLoad Whether this is a large load. If so, refresh and replicas are disabled until the session is closed.
+     * @param onIndexed Called with the IDs of every successfully indexed batch, may be null
+     * @return Bulk indexing session
+     * @throws IOException If the index settings could not be changed
+     */
+    public Session openSession(String indexName, boolean bulkLoad, Consumer<List<Long>> onIndexed) throws IOException {
+        return new Session(indexName, bulkLoad, onIndexed);
+    }
+
+    private Settings disableRefreshAndReplicas(String indexName) throws IOException {
+        GetSettingsResponse response = elasticsearchClient.indices().getSettings(
+                new GetSettingsRequest().indices(indexName).names(REFRESH_INTERVAL, NUMBER_OF_REPLICAS),
+                RequestOptions.DEFAULT);
+
+        // The settings are keyed by the concrete index, which differs from the given name if it is an alias
+        final String concreteIndexName = response.getIndexToSettings().keysIt().next();
+        Settings previousSettings = Settings.builder()
+                .put(REFRESH_INTERVAL, response.getSetting(concreteIndexName, REFRESH_INTERVAL))
+                .put(NUMBER_OF_REPLICAS, response.getSetting(concreteIndexName, NUMBER_OF_REPLICAS))
+                .build();
+
+        elasticsearchClient.indices().putSettings(new UpdateSettingsRequest(indexName).settings(Settings.builder()
+                .put(REFRESH_INTERVAL, "-1")
+                .put(NUMBER_OF_REPLICAS, 0)
+                .build()), RequestOptions.DEFAULT);
+        logger.info("Disabled refresh and replicas of index {} for bulk load", indexName);
+
+        return previousSettings;
+    }
+
+    private void restoreSettings(String indexName, Settings previousSettings) throws IOException {
+        // Settings that were not set explicitly before are reset to their defaults
+        Settings.Builder restoredSettings = Settings.builder();
+        for (String setting : new String[]{REFRESH_INTERVAL, NUMBER_OF_REPLICAS}) {
+            if (previousSettings.get(setting) != null) {
+                restoredSettings.put(setting, previousSettings.get(setting));
+            } else {
+                restoredSettings.putNull(setting);
+            }
+        }
+
+        elasticsearchClient.indices().putSettings(new UpdateSettingsRequest(indexName).settings(restoredSettings.build()),
+                RequestOptions.DEFAULT);
+        elasticsearchClient.indices().refresh(new RefreshRequest(indexName), RequestOptions.DEFAULT);
+        logger.info("Restored refresh and replicas of index {}", indexName);
+    }
+}
@@ -0,0 +1,429 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetMappingsRequest;
+import org.elasticsearch.client.indices.GetMappingsResponse;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Manages the ElasticSearch index of EtdEntryMeta documents from a versioned, code-managed index definition.
+ * <p>
+ * The definition holds the settings (shards, replicas, analyzers) and the explicit mapping of the index, with its
+ * version in the "_meta" of the mapping. The version must be increased with every change to the definition.
+ * <p>
+ * The application reads and writes through the {@link EtdEntryMeta#INDEX_NAME} alias, which points to a single
+ * versioned index. A reindex builds a new versioned index next to the live one and then swaps the alias to it
+ * atomically, so that searches are never served from a partial index. Writes to the live index are blocked during a
+ * reindex, so that none of them are lost or undone by the swap.
+ */
+@Service
+public class EtdEntryMetaIndexManager {
+    public static final String DEFINITION_PATH = "elasticsearch/etd_entries.json";
+
+    private static final String WRITE_BLOCK = "index.blocks.write";
+    private static final String TYPE_HINT_FIELD = "_class";
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+    private static final int SCROLL_SIZE = 1000;
+    private static final int ID_BATCH_SIZE = 1000;
+
+    private final RestHighLevelClient elasticsearchClient;
+    private final boolean applyOnStartup;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    Logger logger = LoggerFactory.getLogger(EtdEntryMetaIndexManager.class);
+
+    /**
+     * Settings and mapping of the index, as JSON.
+     */
+    public static class IndexDefinition {
+        public final String settings;
+        public final String mappings;
+        public final int version;
+
+        IndexDefinition(String settings, String mappings, int version) {
+            this.settings = settings;
+            this.mappings = mappings;
+            this.version = version;
+        }
+    }
+
+    @Autowired
+    public EtdEntryMetaIndexManager(RestHighLevelClient elasticsearchClient,
+                                    @Value("${elasticsearch.index.apply-on-startup:true}") boolean applyOnStartup) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.applyOnStartup = applyOnStartup;
+    }
+
+    /**
+     * Applies the index definition once the application has started, unless disabled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void applyIndexDefinitionOnStartup() {
+        if (!applyOnStartup) {
+            return;
+        }
+
+        try {
+            applyIndexDefinition();
+        } catch (IOException e) {
+            logger.error("Failed to apply the definition of index {}.", EtdEntryMeta.INDEX_NAME, e);
+        }
+    }
+
+    /**
+     * Creates a versioned index from the index definition and points the alias to it, if neither exists.
+     * An existing index with an older definition version is left as is, as mapping changes require a reindex.
+     *
+     * @throws IOException If the definition cannot be read or the index cannot be created
+     */
+    public void applyIndexDefinition() throws IOException {
+        final IndexDefinition definition = loadIndexDefinition();
+
+        if (!liveIndexExists()) {
+            final String indexName = createVersionedIndex(definition);
+            swapAlias(indexName);
+            return;
+        }
+
+        if (getAliasedIndices().isEmpty()) {
+            logger.warn("Index {} is not an alias of a versioned index. Reindex to move it behind an alias.",
+                    EtdEntryMeta.INDEX_NAME);
+        }
+
+        final int indexVersion = getIndexVersion(EtdEntryMeta.INDEX_NAME);
+        if (indexVersion < definition.version) {
+            logger.warn("Index {} has definition version {}, but the current version is {}. Reindex to apply it.",
+                    EtdEntryMeta.INDEX_NAME, indexVersion, definition.version);
+        } else {
+            logger.info("Index {} is up to date with definition version {}", EtdEntryMeta.INDEX_NAME, indexVersion);
+        }
+    }
+
+    /**
+     * Creates a new versioned index from the current index definition, without pointing the alias to it.
+     *
+     * @return Name of the created index
+     * @throws IOException If the definition cannot be read or the index cannot be created
+     */
+    public String createVersionedIndex() throws IOException {
+        return createVersionedIndex(loadIndexDefinition());
+    }
+
+    private String createVersionedIndex(IndexDefinition definition) throws IOException {
+        final String indexName = EtdEntryMeta.INDEX_NAME + "_v" + definition.version + "_" + System.currentTimeMillis();
+        createIndex(indexName, definition);
+        return indexName;
+    }
+
+    /**
+     * @return Whether the live index exists, either as an alias or as a concrete index
+     * @throws IOException If the cluster cannot be reached
+     */
+    public boolean liveIndexExists() throws IOException {
+        return indexExists(EtdEntryMeta.INDEX_NAME);
+    }
+
+    /**
+     * @param indexName Index or alias
+     * @return Whether the index exists
+     * @throws IOException If the cluster cannot be reached
+     */
+    public boolean indexExists(String indexName) throws IOException {
+        return elasticsearchClient.indices().exists(new GetIndexRequest(indexName), RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Gets the versioned indices the alias currently points to.
+     *
+     * @return Names of the aliased indices, empty if the alias does not exist
+     * @throws IOException If the aliases cannot be read
+     */
+    public List<String> getAliasedIndices() throws IOException {
+        GetAliasesResponse response = elasticsearchClient.indices().getAlias(
+                new GetAliasesRequest(EtdEntryMeta.INDEX_NAME), RequestOptions.DEFAULT);
+        return new ArrayList<>(response.getAliases().keySet());
+    }
+
+    /**
+     * Gets the concrete indices behind the live index.
+     *
+     * @return Names of the aliased indices, or the name of the live index if it is a concrete index from before
+     * indices were versioned, empty if there is no live index
+     * @throws IOException If the aliases cannot be read
+     */
+    public List<String> getLiveIndices() throws IOException {
+        final List<String> aliasedIndices = getAliasedIndices();
+        if (aliasedIndices.isEmpty() && liveIndexExists()) {
+            return List.of(EtdEntryMeta.INDEX_NAME);
+        }
+
+        return aliasedIndices;
+    }
+
+    /**
+     * Atomically points the alias to the given index, removing it from the indices it pointed to before.
+     * A concrete index that still has the name of the alias, from before indices were versioned, is deleted in the
+     * same operation, as an alias cannot have the name of an index.
+     *
+     * @param indexName Index to point the alias to
+     * @return Indices the alias pointed to before
+     * @throws IOException If the aliases cannot be changed
+     */
+    public List<String> swapAlias(String indexName) throws IOException {
+        final List<String> previousIndices = getAliasedIndices();
+
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        if (previousIndices.isEmpty() && liveIndexExists()) {
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(EtdEntryMeta.INDEX_NAME));
+        }
+        for (String previousIndex : previousIndices) {
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.remove()
+                    .index(previousIndex).alias(EtdEntryMeta.INDEX_NAME));
+        }
+        request.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(indexName).alias(EtdEntryMeta.INDEX_NAME));
+
+        elasticsearchClient.indices().updateAliases(request, RequestOptions.DEFAULT);
+        logger.info("Pointed alias {} to index {}, previously {}", EtdEntryMeta.INDEX_NAME, indexName, previousIndices);
+
+        return previousIndices;
+    }
+
+    /**
+     * Blocks or allows writes to an index. Searches are not affected.
+     * Once blocked, the index is refreshed, so that every write acknowledged before the block is visible to searches.
+     *
+     * @param indexName Concrete index
+     * @param blocked Whether writes are blocked
+     * @throws IOException If the index settings cannot be changed
+     */
+    public void setWriteBlock(String indexName, boolean blocked) throws IOException {
+        elasticsearchClient.indices().putSettings(new UpdateSettingsRequest(indexName)
+                .settings(Settings.builder().put(WRITE_BLOCK, blocked).build()), RequestOptions.DEFAULT);
+        if (blocked) {
+            elasticsearchClient.indices().refresh(new RefreshRequest(indexName), RequestOptions.DEFAULT);
+        }
+        logger.info("{} writes to index {}", blocked ? "Blocked" : "Allowed", indexName);
+    }
+
+    /**
+     * Reads the IDs of all documents of an index, with a checksum of their source.
+     * The checksum does not depend on the order of the fields or on the type hint of the source,
+     * so that documents with the same content written by different clients have the same checksum.
+     *
+     * @param indexName Index or alias
+     * @return Checksum of the source of every document, by document ID
+     * @throws IOException If the documents cannot be read
+     */
+    public Map<String, Long> getDocumentChecksums(String indexName) throws IOException {
+        Map<String, Long> checksums = new HashMap<>();
+
+        SearchResponse response = elasticsearchClient.search(new SearchRequest(indexName)
+                .scroll(SCROLL_KEEP_ALIVE)
+                .source(new SearchSourceBuilder()
+                        .query(QueryBuilders.matchAllQuery())
+                        .sort("_doc")
+                        .size(SCROLL_SIZE)), RequestOptions.DEFAULT);
+        String scrollId = response.getScrollId();
+
+        try {
+            while (response.getHits().getHits().length > 0) {
+                for (SearchHit hit : response.getHits().getHits()) {
+                    checksums.put(hit.getId(), checksum(hit.getSourceAsMap()));
+                }
+
+                response = elasticsearchClient.scroll(new SearchScrollRequest(scrollId).scroll(SCROLL_KEEP_ALIVE),
+                        RequestOptions.DEFAULT);
+                scrollId = response.getScrollId();
+            }
+        } finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            elasticsearchClient.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+        }
+
+        return checksums;
+    }
+
+    /**
+     * Copies documents from one index to another, overwriting them if they exist.
+     *
+     * @param sourceIndexName Index or alias to copy from
+     * @param destIndexName Index to copy to
+     * @param ids IDs of the documents to copy
+     * @return Number of copied documents
+     * @throws IOException If the documents cannot be copied
+     */
+    public long copyDocuments(String sourceIndexName, String destIndexName, List<String> ids) throws IOException {
+        long copied = 0;
+
+        for (int from = 0; from < ids.size(); from += ID_BATCH_SIZE) {
+            final List<String> batch = ids.subList(from, Math.min(from + ID_BATCH_SIZE, ids.size()));
+            ReindexRequest request = new ReindexRequest()
+                    .setSourceIndices(sourceIndexName)
+                    .setDestIndex(destIndexName)
+                    .setSourceQuery(QueryBuilders.idsQuery().addIds(batch.toArray(new String[0])))
+                    .setRefresh(true);
+
+            BulkByScrollResponse response = elasticsearchClient.reindex(request, RequestOptions.DEFAULT);
+            if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty()) {
+                throw new IOException(String.format("Failed to copy documents from %s to %s: %s", sourceIndexName,
+                        destIndexName, response.getBulkFailures().isEmpty()
+                                ? response.getSearchFailures().get(0).getReason()
+                                : response.getBulkFailures().get(0).getMessage()));
+            }
+            copied += response.getCreated() + response.getUpdated();
+        }
+
+        return copied;
+    }
+
+    /**
+     * Deletes documents from an index.
+     *
+     * @param indexName Index to delete from
+     * @param ids IDs of the documents to delete
+     * @throws IOException If the documents cannot be deleted
+     */
+    public void deleteDocuments(String indexName, List<String> ids) throws IOException {
+        for (int from = 0; from < ids.size(); from += ID_BATCH_SIZE) {
+            BulkRequest request = new BulkRequest().setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+            for (String id : ids.subList(from, Math.min(from + ID_BATCH_SIZE, ids.size()))) {
+                request.add(new DeleteRequest(indexName, id));
+            }
+
+            BulkResponse response = elasticsearchClient.bulk(request, RequestOptions.DEFAULT);
+            if (response.hasFailures()) {
+                throw new IOException(String.format("Failed to delete documents from %s: %s", indexName,
+                        response.buildFailureMessage()));
+            }
+        }
+    }
+
+    /**
+     * Deletes an index.
+     *
+     * @param indexName Index to delete
+     * @throws IOException If the index cannot be deleted
+     */
+    public void deleteIndex(String indexName) throws IOException {
+        elasticsearchClient.indices().delete(new DeleteIndexRequest(indexName), RequestOptions.DEFAULT);
+        logger.info("Deleted index {}", indexName);
+    }
+
+    /**
+     * Creates an index with the given definition.
+     *
+     * @param indexName Name of the index to create
+     * @param definition Index definition
+     * @throws IOException If the index cannot be created
+     */
+    public void createIndex(String indexName, IndexDefinition definition) throws IOException {
+        elasticsearchClient.indices().create(new CreateIndexRequest(indexName)
+                .settings(definition.settings, XContentType.JSON)
+                .mapping(definition.mappings, XContentType.JSON), RequestOptions.DEFAULT);
+        logger.info("Created index {} with definition version {}", indexName, definition.version);
+    }
+
+    /**
+     * Gets the definition version an index was created with.
+     *
+     * @param indexName Name of the index
+     * @return Definition version, 0 if the index was not created from a versioned definition
+     * @throws IOException If the mapping of the index cannot be read
+     */
+    public int getIndexVersion(String indexName) throws IOException {
+        GetMappingsResponse response = elasticsearchClient.indices().getMapping(
+                new GetMappingsRequest().indices(indexName), RequestOptions.DEFAULT);
+
+        for (MappingMetadata mapping : response.mappings().values()) {
+            Object meta = mapping.getSourceAsMap().get("_meta");
+            if (meta instanceof Map && ((Map<?, ?>) meta).get("version") instanceof Number) {
+                return ((Number) ((Map<?, ?>) meta).get("version")).intValue();
+            }
+        }
+
+        return 0;
+    }
+
+    private long checksum(Map<String, Object> source) throws IOException {
+        Map<String, Object> fields = new TreeMap<>(source);
+        fields.remove(TYPE_HINT_FIELD);
+
+        final byte[] hash = ShardedEtdDocumentStore.newDigest().digest(objectMapper.writeValueAsBytes(fields));
+        return ByteBuffer.wrap(hash).getLong();
+    }
+
+    /**
+     * Loads the index definition from the classpath.
+     *
+     * @return Index definition
+     * @throws IOException If the definition cannot be read
+     */
+    public IndexDefinition loadIndexDefinition() throws IOException {
+        return loadIndexDefinition(DEFINITION_PATH);
+    }
+
+    /**
+     * Loads an index definition from the classpath.
+     *
+     * @param definitionPath Classpath location of the index definition
+     * @return Index definition
+     * @throws IOException If the definition cannot be read
+     */
+    public IndexDefinition loadIndexDefinition(String definitionPath) throws IOException {
+        final JsonNode definition;
+        try (InputStream inputStream = new ClassPathResource(definitionPath).getInputStream()) {
+            definition = objectMapper.readTree(inputStream);
+        }
+
+        final JsonNode mappings = definition.get("mappings");
+        return new IndexDefinition(objectMapper.writeValueAsString(definition.get("settings")),
+                objectMapper.writeValueAsString(mappings), mappings.path("_meta").path("version").asInt(0));
+    }
+}
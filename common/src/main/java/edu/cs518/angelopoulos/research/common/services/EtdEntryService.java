@@ -8,23 +8,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.core.SearchPage;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.transaction.Transactional;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -33,6 +32,9 @@ public class EtdEntryService {
     private final EtdEntryRepository etdEntryRepository;
     private final EtdEntryMetaRepository etdEntryMetaRepository;
     private final EtdDocumentRepository etdDocumentRepository;
+    private final EtdSearchCacheService etdSearchCacheService;
+    private final EtdDocumentStore etdDocumentDataStore;
+    private final EtdDocumentTextIndexer etdDocumentTextIndexer;
 
     private final Path etdDocumentStore;
 
@@ -57,45 +59,90 @@ public class EtdEntryService {
     }
 
     public static class EtdDocumentResult {
-        public InputStreamResource resource;
         public File file;
+        public String filename;
     }
 
     @Autowired
     public EtdEntryService(EtdEntryRepository etdEntryRepository, EtdEntryMetaRepository etdEntryMetaRepository,
-                           EtdDocumentRepository etdDocumentRepository,
+                           EtdDocumentRepository etdDocumentRepository, EtdSearchCacheService etdSearchCacheService,
+                           EtdDocumentStore etdDocumentDataStore, EtdDocumentTextIndexer etdDocumentTextIndexer,
                            @Value("${data.etd.documentstore}") String etdDocumentStore) {
         this.etdEntryRepository = etdEntryRepository;
         this.etdEntryMetaRepository = etdEntryMetaRepository;
         this.etdDocumentRepository = etdDocumentRepository;
+        this.etdSearchCacheService = etdSearchCacheService;
+        this.etdDocumentDataStore = etdDocumentDataStore;
+        this.etdDocumentTextIndexer = etdDocumentTextIndexer;
         this.etdDocumentStore = Paths.get(etdDocumentStore).toAbsolutePath().normalize();
     }
 
     /**
-     * Search an ETD entry by title. Pages the results.
+     * Search an ETD entry by title. Pages the results. Results are served from the search cache when possible.
      *
      * @param title Title to search for
      * @param page Index of the page to return
      * @param pageSize Size of the page to return
+     * @param fullSource Whether to return full documents, or only the fields of {@link EtdEntryMetaSearchCard}
      * @return Page of EtdEntryMeta results that match the given title
      */
-    public SearchPage<EtdEntryMeta> findByTitle(String title, Integer page, Integer pageSize) {
+    public SearchPage<EtdEntryMeta> findByTitle(String title, Integer page, Integer pageSize, boolean fullSource) {
         Pageable pageable = PageRequest.of(page, pageSize);
-        return this.etdEntryMetaRepository.simpleSearch(title, pageable);
+        String cacheKey = EtdSearchCacheService.titleSearchKey(title, page, pageSize, fullSource);
+        return this.etdSearchCacheService.get(cacheKey, () -> this.etdEntryMetaRepository.simpleSearch(title, pageable, fullSource));
+    }
+
+    /**
+     * Search an ETD entry by title, returning the page after a cursor. Used for deep paging.
+     *
+     * @param title Title to search for
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     * @param pageSize Size of the page to return
+     * @param fullSource Whether to return full documents, or only the fields of {@link EtdEntryMetaSearchCard}
+     * @return Page of EtdEntryMeta results that match the given title, along with the next cursor
+     */
+    public EtdEntryMetaSearchAfterPage findByTitleAfter(String title, String cursor, Integer pageSize, boolean fullSource) {
+        return this.etdEntryMetaRepository.simpleSearchAfter(title, cursor, pageSize, fullSource);
+    }
+
+    /**
+     * Suggests ETD entry titles for partially typed search text.
+     *
+     * @param prefix Text typed so far
+     * @param size Maximum number of suggestions
+     * @return IDs and titles of the suggested ETD entries
+     */
+    public List<EtdEntryMetaSuggestion> suggestTitles(String prefix, int size) {
+        return this.etdEntryMetaRepository.suggestTitles(prefix, size);
+    }
+
+    /**
+     * Searches the text of the ETD documents. Pages the results.
+     *
+     * @param text Text to search for
+     * @param page Index of the page to return
+     * @param pageSize Size of the page to return
+     * @param fullSource Whether to return full documents, or only the fields of {@link EtdEntryMetaSearchCard}
+     * @return Page of EtdEntryMeta results whose documents match the given text
+     */
+    public EtdEntryTextSearchPage fullTextSearch(String text, Integer page, Integer pageSize, boolean fullSource) {
+        return this.etdEntryMetaRepository.fullTextSearch(text, page, pageSize, fullSource);
     }
 
     /**
      * Perform an advanced search with multiple fields to find EtdEntryMetas.
-     * Pages the results.
+     * Pages the results. Results are served from the search cache when possible.
      *
      * @param query Object containing the query information
      * @param page Index of the page to return
      * @param pageSize Size of the page to return
+     * @param fullSource Whether to return full documents, or only the fields of {@link EtdEntryMetaSearchCard}
      * @return Page of EtdEntryMeta results that matched the given query data
      */
-    public SearchPage<EtdEntryMeta> advancedSearch(EtdEntryMetaSearchQuery query, Integer page, Integer pageSize) {
+    public SearchPage<EtdEntryMeta> advancedSearch(EtdEntryMetaSearchQuery query, Integer page, Integer pageSize, boolean fullSource) {
         Pageable pageable = PageRequest.of(page, pageSize);
-        return this.etdEntryMetaRepository.advancedSearch(query, pageable);
+        String cacheKey = EtdSearchCacheService.advancedSearchKey(query, page, pageSize, fullSource);
+        return this.etdSearchCacheService.get(cacheKey, () -> this.etdEntryMetaRepository.advancedSearch(query, pageable, fullSource));
     }
 
     /**
@@ -138,6 +185,16 @@ public class EtdEntryService {
         return etdEntry;
     }
 
+    /**
+     * Gets the IDs of the ETD entries created by a user.
+     *
+     * @param user User that created the ETD entries
+     * @return IDs of the ETD entries
+     */
+    public List<Long> getCreatedEtdEntryIds(final User user) {
+        return etdEntryRepository.findIdsByUserId(user.getId());
+    }
+
     /**
      * Returns the corresponding EtdEntryMeta objects for a list of EtdEntry objects.
      *
@@ -145,8 +202,16 @@ public class EtdEntryService {
      * @return List of EtdEntryMeta objects
      */
     public List<EtdEntryMeta> getMetasForEtdEntries(final List<EtdEntry> etdEntries) {
-        List<Long> etdEntryIds = etdEntries.stream().map(EtdEntry::getId).collect(Collectors.toList());
+        return getMetasForEtdEntryIds(etdEntries.stream().map(EtdEntry::getId).collect(Collectors.toList()));
+    }
 
+    /**
+     * Gets the ETD entry metadata for the ETD entries with the specified IDs.
+     *
+     * @param etdEntryIds IDs of the ETD entries
+     * @return List of ETD entry metadata
+     */
+    public List<EtdEntryMeta> getMetasForEtdEntryIds(final List<Long> etdEntryIds) {
         if (etdEntryIds.isEmpty()) {
             return new ArrayList<>();
         }
@@ -174,6 +239,37 @@ public class EtdEntryService {
             throw new EtdEntryValidationException("Failed to create ETD entry, ETD document file has invalid type.");
         }
 
+        return createEtdEntry(etdEntryMeta, user, etdDocumentFile.getOriginalFilename(), (etdEntry, etdDocument) ->
+                etdDocumentDataStore.writeDocument(etdEntry, etdDocument, etdDocumentFile.getInputStream()));
+    }
+
+    /**
+     * Creates a new ETD entry with the ETD document of a completed upload.
+     * The uploaded file is moved into the ETD document store without being copied.
+     *
+     * @param etdEntryMeta ETD entry metadata
+     * @param upload Completed upload of the ETD document file
+     * @param user User to associate with the ETD entry
+     * @throws EtdEntryCreationException If the ETD entry could not be created
+     * @throws EtdEntryValidationException If the ETD entry metadata could not be validated
+     */
+    @Transactional
+    public EtdEntry createEtdEntryFromUpload(EtdEntryMeta etdEntryMeta, EtdDocumentUploadService.CompletedUpload upload, User user) throws EtdEntryCreationException, EtdEntryValidationException {
+        validateEtdEntryMeta(etdEntryMeta);
+
+        return createEtdEntry(etdEntryMeta, user, upload.filename, (etdEntry, etdDocument) ->
+                etdDocumentDataStore.importDocument(etdEntry, etdDocument, upload.path, upload.contentHash));
+    }
+
+    /**
+     * Writes the file of the ETD document of a new ETD entry to the ETD document store.
+     */
+    private interface EtdDocumentWriter {
+        void write(EtdEntry etdEntry, EtdDocument etdDocument) throws IOException;
+    }
+
+    private EtdEntry createEtdEntry(EtdEntryMeta etdEntryMeta, User user, String etdDocumentFilename,
+                                    EtdDocumentWriter etdDocumentWriter) throws EtdEntryCreationException {
         // Insert etd entry in database
         EtdEntry etdEntry = new EtdEntry();
         try {
@@ -195,32 +291,27 @@ public class EtdEntryService {
             throw new EtdEntryCreationException("Failed to create ETD entry meta in ElasticSearch.");
         }
 
-        // Create etd entry directory in etd store
+        // Write ETD document to the ETD document store
+        final EtdDocument etdDocument = new EtdDocument();
         try {
-            createEtdEntryDirectory(etdEntry);
+            etdEntry.setDocuments(new ArrayList<>());
 
             // Validate file path
-            String cleanFileName = StringUtils.cleanPath(Objects.requireNonNull(etdDocumentFile.getOriginalFilename()));
+            String cleanFileName = StringUtils.cleanPath(Objects.requireNonNull(etdDocumentFilename));
             if (cleanFileName.contains("..")) {
                 throw new EtdEntryCreationException("Failed to create ETD entry. ETD document path has invalid characters.");
             }
 
             // Create ETD document
             Path filePath = Paths.get(cleanFileName);
-            EtdDocument etdDocument = new EtdDocument();
             etdDocument.setFilename(filePath.getFileName().toString());
             etdDocument.setEtdEntry(etdEntry);
 
-            // Copy ETD document to directory
+            // Copy ETD document to the store
             try {
-                addFileToEtdEntryDirectory(etdEntry, etdDocumentFile, filePath);
+                etdDocumentWriter.write(etdEntry, etdDocument);
             } catch (IOException e) {
-                // Delete ETD entry
-                etdEntryMetaRepository.deleteById(etdEntryMeta.getId());
-                etdEntryRepository.deleteById(etdEntry.getId());
-                deleteEtdEntryDirectory(etdEntry);
-
-                throw new EtdEntryCreationException("Failed to add file to ETD entry directory.");
+                throw new EtdEntryCreationException("Failed to add file to ETD document store.");
             }
 
             // Finally, add ETD document to ETD entry in the database
@@ -230,27 +321,60 @@ public class EtdEntryService {
             etdEntryMetaRepository.deleteById(etdEntryMeta.getId());
             etdEntryRepository.deleteById(etdEntry.getId());
 
-            try {
-                deleteEtdEntryDirectory(etdEntry);
-            } catch (Exception ignored) { }
-
-            throw new EtdEntryCreationException("Failed to create ETD entry directory.");
+            throw new EtdEntryCreationException("Failed to store ETD document.");
         }
 
+        // Cached search results may no longer be accurate
+        etdSearchCacheService.invalidateAll();
+
+        indexDocumentTextAfterCommit(etdEntry, etdDocument);
+
         return etdEntry;
     }
 
+    /**
+     * Queues the text of a new ETD document for full-text indexing, once the transaction creating it has committed.
+     */
+    private void indexDocumentTextAfterCommit(final EtdEntry etdEntry, final EtdDocument etdDocument) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            etdDocumentTextIndexer.indexDocument(etdEntry, etdDocument);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                etdDocumentTextIndexer.indexDocument(etdEntry, etdDocument);
+            }
+        });
+    }
+
     /**
      * Deletes the ETD entry and metadata with the specified id.
      *
      * @param id ID of the ETD entry to delete
      */
     public void deleteEtdEntry(final Long id) {
-        // Delete entry from ElasticSearch
-        etdEntryRepository.deleteById(id);
+        final List<EtdDocument> etdDocuments = etdDocumentRepository.findAllByEtdEntryId(id);
 
-        // Delete entry from database
+        // Delete entry from ElasticSearch first, as it rejects writes while a reindex is running
         etdEntryMetaRepository.deleteById(id);
+        etdDocumentTextIndexer.deleteEntryText(id);
+
+        // Delete entry from database
+        etdEntryRepository.deleteById(id);
+
+        // Delete document files that are no longer referenced
+        for (EtdDocument etdDocument : etdDocuments) {
+            try {
+                etdDocumentDataStore.releaseDocument(etdDocument.getEtdEntry(), etdDocument);
+            } catch (IOException e) {
+                logger.error("Failed to delete file of ETD document {}.", etdDocument.getId(), e);
+            }
+        }
+
+        // Cached search results may no longer be accurate
+        etdSearchCacheService.invalidateAll();
     }
 
     /**
@@ -284,7 +408,7 @@ public class EtdEntryService {
      * Gets the first ETD document data belonging to an ETD entry.
      *
      * @param etdEntryId Id of the ETD entry
-     * @return InputStreamResource for the ETD document
+     * @return Result holding the ETD document file and its original filename
      * @throws EtdEntryNotFoundException If ETD entry with the specified ID is not found
      * @throws FileNotFoundException If no ETD document is found
      */
@@ -300,55 +424,80 @@ public class EtdEntryService {
 
         EtdDocument etdDocument = etdEntry.getDocuments().get(0);
 
-        Path etdDocumentPath = getEtdDocumentPath(etdEntry, etdDocument);
+        Path etdDocumentPath = etdDocumentDataStore.getDocumentPath(etdEntry, etdDocument);
         File etdDocumentFile = new File(String.valueOf(etdDocumentPath));
+        if (!etdDocumentFile.isFile()) {
+            throw new FileNotFoundException("Could not locate ETD document " + etdDocumentPath);
+        }
 
+        // The file is not opened here, so that it can be sent without copying it through the heap
         EtdDocumentResult result = new EtdDocumentResult();
-        result.resource = new InputStreamResource(new FileInputStream(etdDocumentFile));
         result.file = etdDocumentFile;
+        result.filename = etdDocument.getFilename();
 
         return result;
     }
 
     /**
-     * Inserts an ETD entry from the disk to the database.
+     * Creates an empty ETD entry in the database, to be inserted from the disk with
+     * {@link #insertEtdEntryFromDisk(EtdEntry, EtdEntryMeta, File, File[])}.
+     * The ID of the entry is known before anything is moved, so that an interrupted insert can be completed later.
+     *
+     * @return EtdEntry object that was created in the database
+     */
+    public EtdEntry createEtdEntryForDisk() {
+        return etdEntryRepository.save(new EtdEntry());
+    }
+
+    /**
+     * Inserts an ETD entry from the disk to the database, moving its directory into the ETD document store.
+     * Can be repeated for an entry whose insert was interrupted, as a directory that was already moved and a document
+     * that was already saved are reused.
      *
+     * @param etdEntry ETD entry created with {@link #createEtdEntryForDisk()}
      * @param etdEntryMeta EtdEntryMeta object containing the metadata of the EtdEntry
-     * @param pdfFiles Array of PDF file handles
-     * @return EtdEntry object that was inserted in the database
+     * @param sourceDirectory Directory of the ETD entry
+     * @param pdfFiles Array of PDF file handles, may be empty if the document was already saved
+     * @throws IOException If the directory or the document file could not be moved into the ETD document store
      */
-    public EtdEntry insertEtdEntryFromDisk(EtdEntryMeta etdEntryMeta, File sourceDirectory, File[] pdfFiles) {
-        EtdEntry etdEntry = new EtdEntry();
+    public void insertEtdEntryFromDisk(EtdEntry etdEntry, EtdEntryMeta etdEntryMeta, File sourceDirectory, File[] pdfFiles)
+            throws IOException {
+        final Path etdEntryPath = mapEtdEntryDirectory(etdEntryMeta, sourceDirectory, etdEntry);
+
+        // The document is already saved if a previous insert was interrupted afterwards
+        final List<EtdDocument> savedDocuments = etdDocumentRepository.findAllByEtdEntryId(etdEntry.getId());
+        if (!savedDocuments.isEmpty()) {
+            etdDocumentTextIndexer.indexDocument(etdEntry, savedDocuments.get(0));
+            return;
+        }
+
+        if (pdfFiles == null || pdfFiles.length < 1) {
+            throw new IOException(String.format("Directory of ETD entry %d has no document file.", etdEntry.getId()));
+        }
 
         // Note for now we only add the first pdf file
         EtdDocument etdDocument = new EtdDocument();
         etdDocument.setFilename(pdfFiles[0].getName());
-
-        // Create the directory for the ETD entry
-        try {
-            etdEntry = etdEntryRepository.save(etdEntry);
-            etdDocument.setEtdEntry(etdEntry);
-            etdDocumentRepository.save(etdDocument);
-
-            mapEtdEntryDirectory(etdEntryMeta, sourceDirectory, etdEntry);
-            etdEntryRepository.save(etdEntry);
-        } catch (IOException e) {
-            e.printStackTrace();
-            logger.error("Failed to create directory for ETD entry {}", etdEntry.getId().toString());
+        etdDocument.setEtdEntry(etdEntry);
+
+        // The file is only removed from the entry directory once the document is saved, so that the insert can be repeated
+        final Path sourcePath = etdEntryPath.resolve(pdfFiles[0].getName());
+        etdDocumentDataStore.importDocument(etdEntry, etdDocument, sourcePath, true);
+        etdDocumentRepository.save(etdDocument);
+        if (!sourcePath.toAbsolutePath().normalize().equals(etdDocumentDataStore.getDocumentPath(etdEntry, etdDocument))) {
+            Files.deleteIfExists(sourcePath);
         }
 
-        return etdEntry;
+        etdEntryRepository.save(etdEntry);
+
+        etdDocumentTextIndexer.indexDocument(etdEntry, etdDocument);
     }
 
     private Path getEtdEntryPath(EtdEntry etdEntry) {
         return etdDocumentStore.resolve(etdEntry.getId().toString());
     }
 
-    private Path getEtdDocumentPath(EtdEntry etdEntry, EtdDocument etdDocument) {
-        return getEtdEntryPath(etdEntry).resolve(etdDocument.getFilename());
-    }
-
-    private void mapEtdEntryDirectory(EtdEntryMeta etdEntryMeta, File sourceDir, EtdEntry etdEntry) throws IOException {
+    private Path mapEtdEntryDirectory(EtdEntryMeta etdEntryMeta, File sourceDir, EtdEntry etdEntry) throws IOException {
         Path originalEntryPath = sourceDir.toPath();
         Path destEntryPath = getEtdEntryPath(etdEntry);
 
@@ -357,22 +506,6 @@ public class EtdEntryService {
         }
 
         etdEntry.setDocuments(new ArrayList<>());
-    }
-
-    private void createEtdEntryDirectory(EtdEntry etdEntry) throws IOException {
-        Path etdEntryPath = getEtdEntryPath(etdEntry);
-        Files.createDirectory(etdEntryPath);
-        etdEntry.setDocuments(new ArrayList<>());
-    }
-
-    private void deleteEtdEntryDirectory(EtdEntry etdEntry) throws IOException {
-        Path etdEntryPath = getEtdEntryPath(etdEntry);
-        Files.delete(etdEntryPath);
-    }
-
-    private void addFileToEtdEntryDirectory(EtdEntry etdEntry, MultipartFile file, Path filePath) throws IOException {
-        Path etdEntryPath = getEtdEntryPath(etdEntry);
-        Path etdDocumentPath = etdEntryPath.resolve(filePath);
-        Files.copy(file.getInputStream(), etdDocumentPath, StandardCopyOption.REPLACE_EXISTING);
+        return destEntryPath;
     }
 }
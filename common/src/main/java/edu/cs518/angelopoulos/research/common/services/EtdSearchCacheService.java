@@ -0,0 +1,345 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMetaSearchQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchPage;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Caches ETD search results.
+ * The first tier is a bounded, in-process LRU cache limited by the estimated size of the results.
+ * The second tier is an optional {@link EtdSearchCacheSharedTier}. Entries in both tiers expire after a fixed TTL.
+ * <p>
+ * Each invalidation starts a new generation, and results of searches started in an earlier generation are not cached,
+ * so that a search running during an invalidation cannot put a stale result back in either tier.
+ * Writes to the shared tier are ordered with invalidations of this instance by a lock. Invalidations made by other
+ * instances are only seen through {@link EtdSearchCacheSharedTier#invalidateAll()}.
+ */
+@Service
+public class EtdSearchCacheService {
+    private final EtdSearchCacheSharedTier sharedTier;
+    private final long maxBytes;
+    private final Duration timeToLive;
+
+    private final LinkedHashMap<String, CacheEntry> localTier = new LinkedHashMap<>(256, 0.75f, true);
+    private long localTierBytes = 0;
+    private long generation = 0;
+
+    // Held for reading while writing to the shared tier, and for writing while invalidating it
+    private final ReadWriteLock sharedTierLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    Logger logger = LoggerFactory.getLogger(EtdSearchCacheService.class);
+
+    private static class CacheEntry {
+        final SearchPage<EtdEntryMeta> value;
+        final long sizeBytes;
+        final long expiresAtMillis;
+
+        CacheEntry(SearchPage<EtdEntryMeta> value, long sizeBytes, long expiresAtMillis) {
+            this.value = value;
+            this.sizeBytes = sizeBytes;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters.
+     */
+    public static class Statistics {
+        public long hits;
+        public long sharedHits;
+        public long misses;
+        public long evictions;
+        public long expirations;
+        public int entries;
+        public long sizeBytes;
+        public long maxBytes;
+    }
+
+    @Autowired
+    public EtdSearchCacheService(ObjectProvider<EtdSearchCacheSharedTier> sharedTier,
+                                 @Value("${search.cache.max-bytes:67108864}") long maxBytes,
+                                 @Value("${search.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.sharedTier = sharedTier.getIfAvailable();
+        this.maxBytes = maxBytes;
+        this.timeToLive = Duration.ofSeconds(ttlSeconds);
+    }
+
+    /**
+     * Builds the cache key for a title search.
+     *
+     * @param title Title to search for
+     * @param page Index of the page
+     * @param pageSize Size of the page
+     * @param fullSource Whether full documents are returned
+     * @return Normalized cache key
+     */
+    public static String titleSearchKey(String title, int page, int pageSize, boolean fullSource) {
+        return String.join("|", "t", normalize(title), String.valueOf(page), String.valueOf(pageSize),
+                String.valueOf(fullSource));
+    }
+
+    /**
+     * Builds the cache key for an advanced search.
+     *
+     * @param query Advanced search query
+     * @param page Index of the page
+     * @param pageSize Size of the page
+     * @param fullSource Whether full documents are returned
+     * @return Normalized cache key
+     */
+    public static String advancedSearchKey(EtdEntryMetaSearchQuery query, int page, int pageSize, boolean fullSource) {
+        return String.join("|", "a", normalize(query.getTitle()), normalize(query.getType()),
+                normalize(query.getSubject()), normalize(query.getAuthor()), normalize(query.getDepartment()),
+                normalize(query.getDegreeGrantor()), normalize(query.getPublisher()),
+                String.valueOf(page), String.valueOf(pageSize), String.valueOf(fullSource));
+    }
+
+    /**
+     * Gets a cached search result, or runs the search and caches its result on a miss.
+     *
+     * @param key Normalized cache key
+     * @param search Search to run on a miss
+     * @return Search result
+     */
+    @SuppressWarnings("unchecked")
+    public SearchPage<EtdEntryMeta> get(String key, Supplier<SearchPage<EtdEntryMeta>> search) {
+        final long now = System.currentTimeMillis();
+        final long searchGeneration;
+
+        synchronized (localTier) {
+            searchGeneration = generation;
+
+            CacheEntry entry = localTier.get(key);
+            if (entry != null) {
+                if (entry.expiresAtMillis > now) {
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+
+                removeLocal(key, entry);
+                expirations.incrementAndGet();
+            }
+        }
+
+        if (sharedTier != null) {
+            try {
+                Object sharedValue = sharedTier.get(key);
+                if (sharedValue != null) {
+                    sharedHits.incrementAndGet();
+                    SearchPage<EtdEntryMeta> result = (SearchPage<EtdEntryMeta>) sharedValue;
+                    putLocal(key, result, now, searchGeneration);
+                    return result;
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to read search result from shared cache tier.", e);
+            }
+        }
+
+        misses.incrementAndGet();
+        SearchPage<EtdEntryMeta> result = search.get();
+        if (!putLocal(key, result, now, searchGeneration)) {
+            return result;
+        }
+
+        if (sharedTier != null) {
+            putShared(key, result, searchGeneration);
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes all cached search results. Must be called whenever ETD entries are created or deleted.
+     */
+    public void invalidateAll() {
+        sharedTierLock.writeLock().lock();
+        try {
+            synchronized (localTier) {
+                ++generation;
+                localTier.clear();
+                localTierBytes = 0;
+            }
+
+            if (sharedTier != null) {
+                try {
+                    sharedTier.invalidateAll();
+                } catch (Exception e) {
+                    logger.warn("Failed to invalidate shared cache tier.", e);
+                }
+            }
+        } finally {
+            sharedTierLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the cache counters.
+     *
+     * @return Cache statistics
+     */
+    public Statistics getStatistics() {
+        Statistics statistics = new Statistics();
+        statistics.hits = hits.get();
+        statistics.sharedHits = sharedHits.get();
+        statistics.misses = misses.get();
+        statistics.evictions = evictions.get();
+        statistics.expirations = expirations.get();
+        statistics.maxBytes = maxBytes;
+
+        synchronized (localTier) {
+            statistics.entries = localTier.size();
+            statistics.sizeBytes = localTierBytes;
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Caches a search result in the shared tier, unless the cache was invalidated since the search started.
+     * An invalidation cannot start between the check and the write, so a stale result is either skipped or removed.
+     */
+    private void putShared(String key, SearchPage<EtdEntryMeta> value, long searchGeneration) {
+        sharedTierLock.readLock().lock();
+        try {
+            synchronized (localTier) {
+                if (searchGeneration != generation) {
+                    return;
+                }
+            }
+
+            sharedTier.put(key, value, timeToLive);
+        } catch (Exception e) {
+            logger.warn("Failed to write search result to shared cache tier.", e);
+        } finally {
+            sharedTierLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Caches a search result in the local tier, unless the cache was invalidated since the search started.
+     *
+     * @return False if the result is stale and was not cached
+     */
+    private boolean putLocal(String key, SearchPage<EtdEntryMeta> value, long now, long searchGeneration) {
+        final long sizeBytes = estimateSizeBytes(key, value);
+
+        synchronized (localTier) {
+            if (searchGeneration != generation) {
+                return false;
+            }
+            if (sizeBytes > maxBytes) {
+                return true;
+            }
+
+            CacheEntry previous = localTier.put(key, new CacheEntry(value, sizeBytes, now + timeToLive.toMillis()));
+            if (previous != null) {
+                localTierBytes -= previous.sizeBytes;
+            }
+            localTierBytes += sizeBytes;
+
+            // Evict least recently used entries until the cache fits
+            Iterator<Map.Entry<String, CacheEntry>> iterator = localTier.entrySet().iterator();
+            while (localTierBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<String, CacheEntry> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+
+                localTierBytes -= eldest.getValue().sizeBytes;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        return true;
+    }
+
+    private void removeLocal(String key, CacheEntry entry) {
+        localTier.remove(key);
+        localTierBytes -= entry.sizeBytes;
+    }
+
+    /**
+     * Roughly estimates the heap size of a search result from the length of its text fields,
+     * highlighted fragments and aggregation buckets.
+     */
+    private static long estimateSizeBytes(String key, SearchPage<EtdEntryMeta> value) {
+        long sizeBytes = 256 + 2L * key.length();
+
+        for (SearchHit<EtdEntryMeta> hit : value.getContent()) {
+            EtdEntryMeta etdEntryMeta = hit.getContent();
+            sizeBytes += 512
+                    + 2L * length(etdEntryMeta.getTitle())
+                    + 2L * length(etdEntryMeta.getDescriptionAbstract())
+                    + 2L * length(etdEntryMeta.getContributorAuthor())
+                    + 2L * length(etdEntryMeta.getContributorDepartment())
+                    + 2L * length(etdEntryMeta.getRights());
+
+            if (etdEntryMeta.getSubject() != null) {
+                for (String subject : etdEntryMeta.getSubject()) {
+                    sizeBytes += 2L * length(subject);
+                }
+            }
+
+            for (Map.Entry<String, List<String>> highlightField : hit.getHighlightFields().entrySet()) {
+                sizeBytes += 64 + 2L * length(highlightField.getKey());
+                for (String fragment : highlightField.getValue()) {
+                    sizeBytes += 48 + 2L * length(fragment);
+                }
+            }
+        }
+
+        final Aggregations aggregations = value.getSearchHits().getAggregations();
+        if (aggregations != null) {
+            for (Aggregation aggregation : aggregations) {
+                sizeBytes += 256 + 2L * length(aggregation.getName());
+                if (aggregation instanceof MultiBucketsAggregation) {
+                    for (MultiBucketsAggregation.Bucket bucket : ((MultiBucketsAggregation) aggregation).getBuckets()) {
+                        sizeBytes += 128 + 2L * length(bucket.getKeyAsString());
+                    }
+                }
+            }
+        }
+
+        return sizeBytes;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        return value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,31 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import java.time.Duration;
+
+/**
+ * Optional second cache tier for search results, shared between application instances (for example Redis).
+ * If a bean implementing this interface exists, {@link EtdSearchCacheService} consults it on local misses.
+ */
+public interface EtdSearchCacheSharedTier {
+    /**
+     * Gets a cached search result.
+     *
+     * @param key Normalized search key
+     * @return Cached result, or null if not cached
+     */
+    Object get(String key);
+
+    /**
+     * Caches a search result.
+     *
+     * @param key Normalized search key
+     * @param value Search result
+     * @param timeToLive Time after which the result must expire
+     */
+    void put(String key, Object value, Duration timeToLive);
+
+    /**
+     * Removes all cached search results.
+     */
+    void invalidateAll();
+}
@@ -2,18 +2,35 @@ package edu.cs518.angelopoulos.research.common.services;
 
 import edu.cs518.angelopoulos.research.common.models.EtdEntry;
 import edu.cs518.angelopoulos.research.common.models.User;
-import edu.cs518.angelopoulos.research.common.repositories.EtdEntryRepository;
-import edu.cs518.angelopoulos.research.common.repositories.UserRepository;
+import edu.cs518.angelopoulos.research.common.repositories.FavoriteEtdEntryRepository;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+/**
+ * Manages the favorite ETD entries of users.
+ * Membership checks are answered from an in-memory, compressed bitmap of the favorite entry IDs of each user.
+ * Bitmaps are loaded on first use, updated when favorites are added or removed, and evicted in LRU order.
+ */
 @Service
 public class FavoriteEtdEntryService {
-    private final UserRepository users;
-    private final EtdEntryRepository etdEntries;
+    private final FavoriteEtdEntryRepository favoriteEtdEntries;
+    private final int maxCachedUsers;
+
+    private final LinkedHashMap<Long, Roaring64NavigableMap> favoriteBitmaps = new LinkedHashMap<>(256, 0.75f, true);
+
+    // Incremented on every committed change, so that bitmaps loaded concurrently with a change are not cached
+    private final AtomicLong[] userGenerations = new AtomicLong[64];
 
     public static class FavoriteEtdEntryNotFound extends Exception {
         public FavoriteEtdEntryNotFound(String errorMessage) {
@@ -22,20 +39,36 @@ public class FavoriteEtdEntryService {
     }
 
     @Autowired
-    public FavoriteEtdEntryService(UserRepository users, EtdEntryRepository etdEntries) {
-        this.users = users;
-        this.etdEntries = etdEntries;
+    public FavoriteEtdEntryService(FavoriteEtdEntryRepository favoriteEtdEntries,
+                                   @Value("${favorites.cache.max-users:10000}") int maxCachedUsers) {
+        this.favoriteEtdEntries = favoriteEtdEntries;
+        this.maxCachedUsers = maxCachedUsers;
+
+        for (int i = 0; i < userGenerations.length; ++i) {
+            userGenerations[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Gets the IDs of a user's favorite ETD entries, most recently added first.
+     *
+     * @param user The user for which to get the favorites
+     * @return IDs of the favorite ETD entries
+     */
+    public List<Long> getFavoriteEtdEntryIds(final User user) {
+        return favoriteEtdEntries.findEtdEntryIds(user.getId());
     }
 
     /**
-     * Adds a new favorite ETD entry to a user's list.
+     * Adds a new favorite ETD entry to a user's list. Adding an existing favorite has no effect.
      *
      * @param user The user for which to add the new favorite
      * @param etdEntry ETD entry to add as a favorite
      */
-    public void addFavoriteEtdEntry(User user, final EtdEntry etdEntry) {
-        user.getFavoriteEtdEntries().add(etdEntry);
-        users.save(user);
+    @Transactional
+    public void addFavoriteEtdEntry(final User user, final EtdEntry etdEntry) {
+        favoriteEtdEntries.insertFavorite(user.getId(), etdEntry.getId());
+        updateBitmapAfterCommit(user.getId(), bitmap -> bitmap.addLong(etdEntry.getId()));
     }
 
     /**
@@ -45,14 +78,15 @@ public class FavoriteEtdEntryService {
      * @param etdEntry ETD entry to remove from favorites
      * @throws FavoriteEtdEntryNotFound ETD entry not a user's favorite
      */
-    public void removeFavoriteEtdEntry(User user, final EtdEntry etdEntry) throws FavoriteEtdEntryNotFound {
-        final boolean removed = user.getFavoriteEtdEntries().remove(etdEntry);
+    @Transactional
+    public void removeFavoriteEtdEntry(final User user, final EtdEntry etdEntry) throws FavoriteEtdEntryNotFound {
+        final int removed = favoriteEtdEntries.deleteFavorite(user.getId(), etdEntry.getId());
 
-        if (!removed) {
+        if (removed == 0) {
             throw new FavoriteEtdEntryNotFound("");
         }
 
-        users.save(user);
+        updateBitmapAfterCommit(user.getId(), bitmap -> bitmap.removeLong(etdEntry.getId()));
     }
 
     /**
@@ -64,12 +98,92 @@ public class FavoriteEtdEntryService {
      * @return List of boolean values for every passed entry ID.
      */
     public List<Boolean> checkEtdEntriesFavorite(final User user, final List<Long> etdEntryIds) {
-        final List<EtdEntry> userFavorites = user.getFavoriteEtdEntries();
+        List<Boolean> matches = new ArrayList<>(etdEntryIds.size());
+        if (etdEntryIds.isEmpty()) {
+            return matches;
+        }
+
+        final Roaring64NavigableMap bitmap = getFavoriteBitmap(user.getId());
+
+        // Bitmaps are only modified while holding the cache lock
+        synchronized (favoriteBitmaps) {
+            for (Long etdEntryId : etdEntryIds) {
+                matches.add(etdEntryId != null && bitmap.contains(etdEntryId));
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Gets the favorites bitmap of a user, loading it from the database if it is not cached.
+     */
+    private Roaring64NavigableMap getFavoriteBitmap(final Long userId) {
+        synchronized (favoriteBitmaps) {
+            Roaring64NavigableMap bitmap = favoriteBitmaps.get(userId);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        final AtomicLong generation = getUserGeneration(userId);
+        final long loadedGeneration = generation.get();
+
+        Roaring64NavigableMap loadedBitmap = new Roaring64NavigableMap();
+        for (Long etdEntryId : favoriteEtdEntries.findEtdEntryIds(userId)) {
+            loadedBitmap.addLong(etdEntryId);
+        }
+        loadedBitmap.runOptimize();
+
+        synchronized (favoriteBitmaps) {
+            Roaring64NavigableMap bitmap = favoriteBitmaps.get(userId);
+            if (bitmap != null) {
+                return bitmap;
+            }
+
+            // A change committed while loading may be missing from the loaded bitmap, so only use it for this call
+            if (generation.get() != loadedGeneration) {
+                return loadedBitmap;
+            }
+
+            favoriteBitmaps.put(userId, loadedBitmap);
+            if (favoriteBitmaps.size() > maxCachedUsers) {
+                favoriteBitmaps.remove(favoriteBitmaps.keySet().iterator().next());
+            }
+        }
+
+        return loadedBitmap;
+    }
+
+    /**
+     * Applies a change to the cached favorites bitmap of a user once the current transaction commits.
+     */
+    private void updateBitmapAfterCommit(final Long userId, final Consumer<Roaring64NavigableMap> change) {
+        final Runnable update = () -> {
+            synchronized (favoriteBitmaps) {
+                getUserGeneration(userId).incrementAndGet();
+
+                Roaring64NavigableMap bitmap = favoriteBitmaps.get(userId);
+                if (bitmap != null) {
+                    change.accept(bitmap);
+                }
+            }
+        };
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
 
-        return etdEntryIds.stream()
-                .map(etdEntryId -> userFavorites.stream()
-                        .map(EtdEntry::getId)
-                        .anyMatch(favoriteId -> favoriteId.equals(etdEntryId)))
-                .collect(Collectors.toList());
+    private AtomicLong getUserGeneration(final Long userId) {
+        return userGenerations[Math.floorMod(userId.hashCode(), userGenerations.length)];
     }
 }
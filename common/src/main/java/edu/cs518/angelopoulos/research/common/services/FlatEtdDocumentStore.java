@@ -0,0 +1,86 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdDocument;
+import edu.cs518.angelopoulos.research.common.models.EtdEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+
+/**
+ * ETD document store keeping every document in the directory of its entry, {@code <store>/<entry id>/<filename>}.
+ */
+@Service
+@ConditionalOnProperty(name = "data.etd.documentstore.layout", havingValue = "flat", matchIfMissing = true)
+public class FlatEtdDocumentStore implements EtdDocumentStore {
+    private final Path etdDocumentStore;
+
+    @Autowired
+    public FlatEtdDocumentStore(@Value("${data.etd.documentstore}") String etdDocumentStore) {
+        this.etdDocumentStore = Paths.get(etdDocumentStore).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Gets the path of an ETD document in the flat layout.
+     *
+     * @param etdDocumentStore Root of the ETD document store
+     * @param etdEntry ETD entry the document belongs to
+     * @param etdDocument ETD document
+     * @return Path of the ETD document file
+     */
+    public static Path getFlatDocumentPath(Path etdDocumentStore, EtdEntry etdEntry, EtdDocument etdDocument) {
+        return etdDocumentStore.resolve(etdEntry.getId().toString()).resolve(etdDocument.getFilename());
+    }
+
+    @Override
+    public Path getDocumentPath(EtdEntry etdEntry, EtdDocument etdDocument) {
+        return getFlatDocumentPath(etdDocumentStore, etdEntry, etdDocument);
+    }
+
+    @Override
+    public void writeDocument(EtdEntry etdEntry, EtdDocument etdDocument, InputStream content) throws IOException {
+        Path etdDocumentPath = getDocumentPath(etdEntry, etdDocument);
+        Files.createDirectories(etdDocumentPath.getParent());
+        Files.copy(content, etdDocumentPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void importDocument(EtdEntry etdEntry, EtdDocument etdDocument, Path source, boolean keepSource) throws IOException {
+        Path etdDocumentPath = getDocumentPath(etdEntry, etdDocument);
+        if (source.toAbsolutePath().normalize().equals(etdDocumentPath)) {
+            return;
+        }
+
+        Files.createDirectories(etdDocumentPath.getParent());
+        if (keepSource) {
+            Files.copy(source, etdDocumentPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.move(source, etdDocumentPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void importDocument(EtdEntry etdEntry, EtdDocument etdDocument, Path source, String contentHash) throws IOException {
+        importDocument(etdEntry, etdDocument, source, false);
+    }
+
+    @Override
+    public void releaseDocument(EtdEntry etdEntry, EtdDocument etdDocument) throws IOException {
+        Path etdDocumentPath = getDocumentPath(etdEntry, etdDocument);
+        Files.deleteIfExists(etdDocumentPath);
+
+        // The entry directory may still hold other files, such as the metadata the entry was inserted from
+        try {
+            Files.deleteIfExists(etdDocumentPath.getParent());
+        } catch (DirectoryNotEmptyException ignored) { }
+    }
+
+    @Override
+    public boolean isContentAddressed() {
+        return false;
+    }
+}
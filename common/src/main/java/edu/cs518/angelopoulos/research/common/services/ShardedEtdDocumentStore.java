@@ -0,0 +1,326 @@
+package edu.cs518.angelopoulos.research.common.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdDocument;
+import edu.cs518.angelopoulos.research.common.models.EtdEntry;
+import edu.cs518.angelopoulos.research.common.repositories.EtdDocumentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * ETD document store addressing document files by the SHA-256 hash of their content.
+ * Files are stored in {@code <store>/blobs/ab/cd/<hash>.pdf}, so no directory grows past a few thousand entries,
+ * and identical documents are stored once.
+ * <p>
+ * Files are deleted lazily. Releasing the last document with a hash only marks its file, and a periodic sweep deletes
+ * marked files that are still unreferenced. Adding a document whose file already exists touches the file, so that the
+ * sweep keeps it until the document is saved, even if that happens in another process such as the inserter.
+ * <p>
+ * Documents without a content hash have not been migrated yet, and are read from the flat layout.
+ */
+@Service
+@ConditionalOnProperty(name = "data.etd.documentstore.layout", havingValue = "sharded")
+public class ShardedEtdDocumentStore implements EtdDocumentStore {
+    static final String BLOBS_DIRECTORY = "blobs";
+    static final String TEMP_DIRECTORY = ".tmp";
+    static final String RELEASED_DIRECTORY = ".released";
+
+    // Files touched within this period may be in use by a document that is not saved yet
+    private static final Duration GC_GRACE_PERIOD = Duration.ofHours(1);
+
+    private final Path etdDocumentStore;
+    private final Path blobsDirectory;
+    private final Path tempDirectory;
+    private final Path releasedDirectory;
+    private final EtdDocumentRepository etdDocumentRepository;
+
+    // Serializes adding and deleting files with the same hash within this process
+    private final Object[] hashLocks = new Object[64];
+
+    Logger logger = LoggerFactory.getLogger(ShardedEtdDocumentStore.class);
+
+    @Autowired
+    public ShardedEtdDocumentStore(@Value("${data.etd.documentstore}") String etdDocumentStore,
+                                   EtdDocumentRepository etdDocumentRepository) {
+        this.etdDocumentStore = Paths.get(etdDocumentStore).toAbsolutePath().normalize();
+        this.blobsDirectory = this.etdDocumentStore.resolve(BLOBS_DIRECTORY);
+        this.tempDirectory = this.etdDocumentStore.resolve(TEMP_DIRECTORY);
+        this.releasedDirectory = this.etdDocumentStore.resolve(RELEASED_DIRECTORY);
+        this.etdDocumentRepository = etdDocumentRepository;
+
+        for (int i = 0; i < hashLocks.length; ++i) {
+            hashLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file.
+     *
+     * @param file File to hash
+     * @return Lowercase hexadecimal hash
+     * @throws IOException If the file could not be read
+     */
+    public static String hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) != -1) {
+                // Digest is updated by the stream
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return New SHA-256 message digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param hash Hash bytes
+     * @return Lowercase hexadecimal representation of the hash
+     */
+    public static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    @Override
+    public Path getDocumentPath(EtdEntry etdEntry, EtdDocument etdDocument) {
+        if (etdDocument.getContentHash() == null) {
+            return FlatEtdDocumentStore.getFlatDocumentPath(etdDocumentStore, etdEntry, etdDocument);
+        }
+
+        return getBlobPath(etdDocument.getContentHash());
+    }
+
+    @Override
+    public void writeDocument(EtdEntry etdEntry, EtdDocument etdDocument, InputStream content) throws IOException {
+        Files.createDirectories(tempDirectory);
+        Path tempFile = Files.createTempFile(tempDirectory, "document", ".part");
+
+        try {
+            MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(content, digest)) {
+                Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            final String contentHash = toHex(digest.digest());
+            addBlob(tempFile, contentHash, false);
+            etdDocument.setContentHash(contentHash);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void importDocument(EtdEntry etdEntry, EtdDocument etdDocument, Path source, boolean keepSource) throws IOException {
+        final String contentHash = hashFile(source);
+        addBlob(source, contentHash, keepSource);
+        etdDocument.setContentHash(contentHash);
+    }
+
+    @Override
+    public void importDocument(EtdEntry etdEntry, EtdDocument etdDocument, Path source, String contentHash) throws IOException {
+        addBlob(source, contentHash, false);
+        etdDocument.setContentHash(contentHash);
+    }
+
+    @Override
+    public void releaseDocument(EtdEntry etdEntry, EtdDocument etdDocument) throws IOException {
+        final String contentHash = etdDocument.getContentHash();
+        if (contentHash == null) {
+            Files.deleteIfExists(FlatEtdDocumentStore.getFlatDocumentPath(etdDocumentStore, etdEntry, etdDocument));
+            return;
+        }
+
+        // The file is only marked, as a document using it may be about to be saved
+        if (etdDocumentRepository.countByContentHash(contentHash) == 0) {
+            Files.createDirectories(releasedDirectory);
+            try {
+                Files.createFile(releasedDirectory.resolve(contentHash));
+            } catch (FileAlreadyExistsException ignored) { }
+        }
+    }
+
+    @Override
+    public boolean isContentAddressed() {
+        return true;
+    }
+
+    /**
+     * Deletes the files of released documents that are still unreferenced, once the grace period has passed.
+     *
+     * @return Number of deleted files
+     * @throws IOException If the released files cannot be listed
+     */
+    public long collectReleasedBlobs() throws IOException {
+        if (!Files.isDirectory(releasedDirectory)) {
+            return 0;
+        }
+
+        long deleted = 0;
+        try (DirectoryStream<Path> markers = Files.newDirectoryStream(releasedDirectory)) {
+            for (Path marker : markers) {
+                try {
+                    if (collectBlob(marker.getFileName().toString(), marker)) {
+                        ++deleted;
+                    }
+                } catch (IOException e) {
+                    logger.error("Failed to collect released ETD document file {}.", marker.getFileName(), e);
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Periodically deletes the files of released documents.
+     */
+    @Scheduled(fixedDelayString = "${data.etd.documentstore.gc-interval-ms:600000}")
+    public void scheduledCollectReleasedBlobs() {
+        try {
+            final long deleted = collectReleasedBlobs();
+            if (deleted > 0) {
+                logger.info("Deleted {} unreferenced ETD document files", deleted);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to collect released ETD document files.", e);
+        }
+    }
+
+    /**
+     * Deletes a released file if it is unreferenced and has not been touched within the grace period.
+     * The file is moved away before it is checked a second time, so that a document added concurrently either touched
+     * it before the move, and it is put back, or finds it missing and writes it again.
+     *
+     * @return True if the file was deleted
+     */
+    private boolean collectBlob(String contentHash, Path marker) throws IOException {
+        final Path blobPath = getBlobPath(contentHash);
+        final Path releasedPath = tempDirectory.resolve(contentHash + ".released");
+        final Instant graceStart = Instant.now().minus(GC_GRACE_PERIOD);
+
+        synchronized (getHashLock(contentHash)) {
+            if (!Files.exists(blobPath) || etdDocumentRepository.countByContentHash(contentHash) > 0) {
+                Files.deleteIfExists(marker);
+                return false;
+            }
+
+            // Checked again by a later sweep
+            if (isTouchedAfter(blobPath, graceStart)) {
+                return false;
+            }
+
+            Files.createDirectories(tempDirectory);
+            try {
+                Files.move(blobPath, releasedPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+
+            if (isTouchedAfter(releasedPath, graceStart) || etdDocumentRepository.countByContentHash(contentHash) > 0) {
+                // A file written again meanwhile has the same content
+                Files.move(releasedPath, blobPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return false;
+            }
+
+            Files.delete(releasedPath);
+            Files.deleteIfExists(marker);
+            return true;
+        }
+    }
+
+    private static boolean isTouchedAfter(Path file, Instant instant) throws IOException {
+        return Files.getLastModifiedTime(file).toInstant().isAfter(instant);
+    }
+
+    /**
+     * Marks an existing file as in use, so that the sweep keeps it until the document using it is saved.
+     *
+     * @return False if the file does not exist
+     */
+    private static boolean touchBlob(Path blobPath) throws IOException {
+        try {
+            Files.setLastModifiedTime(blobPath, FileTime.from(Instant.now()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds a file to the blobs, unless a file with the same hash already exists.
+     */
+    private void addBlob(Path source, String contentHash, boolean keepSource) throws IOException {
+        final Path blobPath = getBlobPath(contentHash);
+
+        synchronized (getHashLock(contentHash)) {
+            if (touchBlob(blobPath)) {
+                if (!keepSource) {
+                    Files.delete(source);
+                }
+                return;
+            }
+
+            Files.createDirectories(blobPath.getParent());
+            if (keepSource) {
+                // Copy next to the blob first, so that the blob only appears once complete
+                Files.createDirectories(tempDirectory);
+                Path tempFile = Files.createTempFile(tempDirectory, "document", ".part");
+                try {
+                    Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tempFile, blobPath, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            } else {
+                try {
+                    Files.move(source, blobPath);
+                } catch (FileAlreadyExistsException e) {
+                    // Added by another process meanwhile
+                    touchBlob(blobPath);
+                    Files.delete(source);
+                }
+            }
+        }
+    }
+
+    private Path getBlobPath(String contentHash) {
+        return blobsDirectory
+                .resolve(contentHash.substring(0, 2))
+                .resolve(contentHash.substring(2, 4))
+                .resolve(contentHash + ".pdf");
+    }
+
+    private Object getHashLock(String contentHash) {
+        return hashLocks[Math.floorMod(contentHash.hashCode(), hashLocks.length)];
+    }
+}
@@ -4,25 +4,96 @@ import edu.cs518.angelopoulos.research.common.models.EtdEntry;
 import edu.cs518.angelopoulos.research.common.models.User;
 import edu.cs518.angelopoulos.research.common.repositories.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manages user profiles.
+ * Profiles looked up by firebase id are cached for a short time, as every authenticated request looks one up.
+ * Cached profiles are detached, so their lazy associations must not be accessed.
+ * <p>
+ * Every change to a profile starts a new generation of its cache key, and a profile read from the database is only
+ * cached if no change happened while it was read, so that a stale or deleted profile is never cached again.
+ */
 @Service
 public class UserService {
     private final UserRepository users;
+    private final long timeToLiveMillis;
+    private final int maxCachedUsers;
+
+    private final LinkedHashMap<String, CachedUser> cachedUsers = new LinkedHashMap<>(256, 0.75f, true);
+
+    // Generations of changes to profiles, striped by firebase id
+    private final AtomicLong[] userGenerations = new AtomicLong[64];
+
+    private static class CachedUser {
+        final User user;
+        final long expiresAtMillis;
+
+        CachedUser(User user, long expiresAtMillis) {
+            this.user = user;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
 
     @Autowired
-    public UserService(UserRepository users) {
+    public UserService(UserRepository users,
+                       @Value("${users.cache.ttl-seconds:30}") long ttlSeconds,
+                       @Value("${users.cache.max-users:10000}") int maxCachedUsers) {
         this.users = users;
+        this.timeToLiveMillis = ttlSeconds * 1000;
+        this.maxCachedUsers = maxCachedUsers;
+
+        for (int i = 0; i < userGenerations.length; ++i) {
+            userGenerations[i] = new AtomicLong();
+        }
     }
 
     /**
      * Gets the user profile with a specific firebase id.
      *
      * @param userFirebaseId Firebase id of the user profile to get.
-     * @return User profile
+     * @return User profile, null if it does not exist
      */
     public User getUserByFirebaseId(final String userFirebaseId) {
-        return users.findByFirebaseId(userFirebaseId);
+        final long now = System.currentTimeMillis();
+
+        synchronized (cachedUsers) {
+            CachedUser cachedUser = cachedUsers.get(userFirebaseId);
+            if (cachedUser != null) {
+                if (cachedUser.expiresAtMillis > now) {
+                    return cachedUser.user;
+                }
+                cachedUsers.remove(userFirebaseId);
+            }
+        }
+
+        final AtomicLong generation = getUserGeneration(userFirebaseId);
+        final long loadedGeneration = generation.get();
+
+        final User user = users.findByFirebaseId(userFirebaseId);
+        if (user == null) {
+            return null;
+        }
+
+        synchronized (cachedUsers) {
+            // The profile may have changed or been deleted while it was read, so only use it for this call
+            if (generation.get() != loadedGeneration) {
+                return user;
+            }
+
+            cachedUsers.put(userFirebaseId, new CachedUser(user, now + timeToLiveMillis));
+            if (cachedUsers.size() > maxCachedUsers) {
+                cachedUsers.remove(cachedUsers.keySet().iterator().next());
+            }
+        }
+
+        return user;
     }
 
     /**
@@ -46,6 +117,7 @@ public class UserService {
         newUser.setFullName(fullName);
 
         users.save(newUser);
+        evictUser(userFirebaseId);
     }
 
     /**
@@ -59,6 +131,7 @@ public class UserService {
         user.setFullName(fullName);
 
         users.save(user);
+        evictUser(userFirebaseId);
     }
 
     /**
@@ -68,5 +141,34 @@ public class UserService {
      */
     public void deleteUserByFirebaseId(final String userFirebaseId) {
         users.deleteByFirebaseId(userFirebaseId);
+        evictUser(userFirebaseId);
+    }
+
+    /**
+     * Removes a user profile from the cache, so that the next lookup reads it from the database.
+     * If a transaction is active, the profile is removed again once it commits, as a lookup meanwhile still reads
+     * the profile from before the change.
+     */
+    private void evictUser(final String userFirebaseId) {
+        final Runnable evict = () -> {
+            synchronized (cachedUsers) {
+                getUserGeneration(userFirebaseId).incrementAndGet();
+                cachedUsers.remove(userFirebaseId);
+            }
+        };
+
+        evict.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        }
+    }
+
+    private AtomicLong getUserGeneration(final String userFirebaseId) {
+        return userGenerations[Math.floorMod(userFirebaseId.hashCode(), userGenerations.length)];
     }
 }
@@ -1,6 +1,12 @@
 package edu.cs518.angelopoulos.research.etdinserter;
 
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import edu.cs518.angelopoulos.research.common.services.EtdClaimCommentLikeCounterService;
+import edu.cs518.angelopoulos.research.common.services.EtdDocumentTextIndexer;
+import edu.cs518.angelopoulos.research.common.services.EtdEntryMetaIndexManager;
+import edu.cs518.angelopoulos.research.etdinserter.services.EtdDocumentStoreMigrationService;
 import edu.cs518.angelopoulos.research.etdinserter.services.EtdInserterService;
+import edu.cs518.angelopoulos.research.etdinserter.services.EtdReindexService;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -36,13 +42,53 @@ public class ResearchEtdInserterApplication {
                 .web(WebApplicationType.NONE)
                 .run(args);
 
+        if (cliArgs.getBoolean("apply_index_definition")) {
+            EtdEntryMetaIndexManager indexManager = context.getBean(EtdEntryMetaIndexManager.class);
+            indexManager.applyIndexDefinition();
+            System.exit(0);
+        }
+
+        if (cliArgs.getBoolean("migrate_document_store")) {
+            EtdDocumentStoreMigrationService migrationService = context.getBean(EtdDocumentStoreMigrationService.class);
+            migrationService.migrateToShardedLayout();
+            System.exit(0);
+        }
+
+        if (cliArgs.getBoolean("index_text")) {
+            EtdDocumentTextIndexer textIndexer = context.getBean(EtdDocumentTextIndexer.class);
+            System.out.printf("Queued text extraction of %d ETD documents\n", textIndexer.indexAllDocuments());
+            try {
+                textIndexer.awaitPending();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.exit(0);
+        }
+
+        if (cliArgs.getBoolean("rebuild_comment_likes")) {
+            EtdClaimCommentLikeCounterService likeCounterService = context.getBean(EtdClaimCommentLikeCounterService.class);
+            System.out.printf("Rebuilt likes of %d comments\n", likeCounterService.rebuildLikes());
+            System.exit(0);
+        }
+
+        if (cliArgs.getBoolean("reindex")) {
+            EtdReindexService reindexService = context.getBean(EtdReindexService.class);
+            reindexService.reindexFromDirectory(cliArgs.getString("directory"), cliArgs.getInt("workers"),
+                    cliArgs.getBoolean("delete_previous_indices"));
+            System.exit(0);
+        }
+
         // Insert ETD entries to databases
         EtdInserterService etdInserterService = context.getBean(EtdInserterService.class);
         if (cliArgs.getBoolean("index_only")) {
             System.out.println("Only indexing data...");
         }
-        etdInserterService.insertFromDirectory(cliArgs.getString("directory"), false, cliArgs.getBoolean("index_only"));
-        System.exit(0);
+        final long failed = etdInserterService.insertFromDirectory(cliArgs.getString("directory"), false,
+                cliArgs.getBoolean("index_only"), cliArgs.getInt("workers"), cliArgs.getBoolean("resume"),
+                EtdEntryMeta.INDEX_NAME, cliArgs.getBoolean("bulk_load"));
+
+        // A partially failed run must not look successful to scripts
+        System.exit(failed > 0 ? 1 : 0);
     }
 
     public static void parseArgs(String[] args) {
@@ -50,11 +96,27 @@ public class ResearchEtdInserterApplication {
                 .defaultHelp(true)
                 .description("Scans a directory for EDT documents and inserts them in MySQL and ElasticSearch");
 
-        parser.addArgument("-d", "--directory").required(true).type(String.class).help("Root of directory containing ETD documents.");
+        parser.addArgument("-d", "--directory").required(false).type(String.class).help("Root of directory containing ETD documents.");
+        parser.addArgument("-w", "--workers").required(false).type(Integer.class)
+                .setDefault(Runtime.getRuntime().availableProcessors())
+                .help("Number of workers parsing ETD entry metadata.");
         parser.addArgument("--index-only").required(false).action(Arguments.storeTrue()).help("Whether to only index metadata. Data must already be inserted in the database, however.");
+        parser.addArgument("--migrate-document-store").required(false).action(Arguments.storeTrue()).help("Whether to migrate the ETD document store from the flat to the sharded layout, instead of inserting.");
+        parser.addArgument("--apply-index-definition").required(false).action(Arguments.storeTrue()).help("Whether to only create the ElasticSearch index from its index definition, instead of inserting.");
+        parser.addArgument("--reindex").required(false).action(Arguments.storeTrue()).help("Whether to index metadata into a new index and swap the live alias to it once complete, instead of inserting. Writes to the live index are only blocked while the writes made meanwhile are replayed and the alias swapped.");
+        parser.addArgument("--delete-previous-indices").required(false).action(Arguments.storeTrue()).help("Whether to delete the indices the live alias pointed to before a reindex.");
+        parser.addArgument("--index-text").required(false).action(Arguments.storeTrue()).help("Whether to only extract and index the text of every ETD document in the database, instead of inserting.");
+        parser.addArgument("--rebuild-comment-likes").required(false).action(Arguments.storeTrue()).help("Whether to only recompute the likes of every comment from the stored votes, instead of inserting. The backend must be stopped.");
+        parser.addArgument("--bulk-load").required(false).action(Arguments.storeTrue()).help("Whether to disable refresh and replicas of the live index while inserting. New entries are not searchable until the run completes, so only for initial loads.");
+        parser.addArgument("--resume").required(false).action(Arguments.storeTrue()).help("Whether to resume a failed run, skipping entries already completed according to its journal.");
 
         try {
             cliArgs = parser.parseArgs(args);
+            if (cliArgs.getString("directory") == null && !cliArgs.getBoolean("migrate_document_store")
+                    && !cliArgs.getBoolean("apply_index_definition") && !cliArgs.getBoolean("index_text")
+                    && !cliArgs.getBoolean("rebuild_comment_likes")) {
+                throw new ArgumentParserException("argument -d/--directory is required", parser);
+            }
             System.out.println(cliArgs.toString());
         } catch (ArgumentParserException e) {
             parser.handleError(e);
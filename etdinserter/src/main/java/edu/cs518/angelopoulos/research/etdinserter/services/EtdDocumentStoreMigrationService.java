@@ -0,0 +1,90 @@
+package edu.cs518.angelopoulos.research.etdinserter.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdDocument;
+import edu.cs518.angelopoulos.research.common.repositories.EtdDocumentRepository;
+import edu.cs518.angelopoulos.research.common.services.FlatEtdDocumentStore;
+import edu.cs518.angelopoulos.research.common.services.ShardedEtdDocumentStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Migrates the ETD document store from the flat layout to the sharded, content addressed layout.
+ * <p>
+ * The migration can run while the backend is serving documents with the sharded layout, since documents
+ * without a content hash are still read from the flat layout. Each document is copied to its blob first,
+ * then its hash is saved, and only then is the flat file deleted. An interrupted migration can simply be run again.
+ */
+@Service
+public class EtdDocumentStoreMigrationService {
+    private static final int BATCH_SIZE = 500;
+
+    private final EtdDocumentRepository etdDocumentRepository;
+    private final ShardedEtdDocumentStore shardedEtdDocumentStore;
+    private final Path etdDocumentStore;
+
+    @Autowired
+    public EtdDocumentStoreMigrationService(EtdDocumentRepository etdDocumentRepository,
+                                            @Value("${data.etd.documentstore}") String etdDocumentStore) {
+        this.etdDocumentRepository = etdDocumentRepository;
+        this.shardedEtdDocumentStore = new ShardedEtdDocumentStore(etdDocumentStore, etdDocumentRepository);
+        this.etdDocumentStore = Paths.get(etdDocumentStore).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Moves every ETD document that is still in the flat layout to the sharded layout.
+     *
+     * @throws IOException If a document could not be migrated
+     */
+    public void migrateToShardedLayout() throws IOException {
+        System.out.printf("Migrating ETD document store '%s' to the sharded layout...\n", etdDocumentStore);
+
+        long lastId = 0;
+        long migrated = 0;
+        long missing = 0;
+
+        while (true) {
+            // Documents are read in ID order, so that documents without a file are not read again
+            List<EtdDocument> etdDocuments = etdDocumentRepository
+                    .findAllByContentHashIsNullAndIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, BATCH_SIZE));
+            if (etdDocuments.isEmpty()) {
+                break;
+            }
+
+            for (EtdDocument etdDocument : etdDocuments) {
+                lastId = etdDocument.getId();
+
+                Path flatPath = FlatEtdDocumentStore.getFlatDocumentPath(etdDocumentStore, etdDocument.getEtdEntry(), etdDocument);
+                if (!Files.exists(flatPath)) {
+                    System.out.printf("File of ETD document %d is missing: %s\n", etdDocument.getId(), flatPath);
+                    ++missing;
+                    continue;
+                }
+
+                shardedEtdDocumentStore.importDocument(etdDocument.getEtdEntry(), etdDocument, flatPath, true);
+                etdDocumentRepository.save(etdDocument);
+
+                // Readers use the blob once the hash is saved
+                Files.delete(flatPath);
+
+                // The entry directory may still hold other files, such as the metadata the entry was inserted from
+                try {
+                    Files.deleteIfExists(flatPath.getParent());
+                } catch (DirectoryNotEmptyException ignored) { }
+                ++migrated;
+            }
+
+            System.out.printf("Migrated %d ETD documents...\n", migrated);
+        }
+
+        System.out.printf("Migrated %d ETD documents, %d missing\n", migrated, missing);
+    }
+}
@@ -0,0 +1,223 @@
+package edu.cs518.angelopoulos.research.etdinserter.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only checkpoint journal of an ETD insert run, stored in the ETD document store.
+ * Records which entry directories have been inserted in the database and which entries have been indexed,
+ * so that a failed run can be resumed without redoing completed work.
+ * <p>
+ * Each line is either {@code INSERTING <directory name> <entry id>}, {@code INSERTED <directory name> <entry id>}
+ * or {@code INDEXED <entry id>}. An insert is recorded as started once its entry exists in the database, before its
+ * directory is moved, so that an insert interrupted by a crash is completed with the same entry on resume.
+ * <p>
+ * Runs into an index other than the live alias, such as a reindex, have their own journal named after the index,
+ * so that they never overwrite the journal of an insert run.
+ */
+class EtdInsertJournal implements Closeable {
+    static final String JOURNAL_FILENAME = ".etdinserter-journal";
+
+    private static final String INSERTING = "INSERTING";
+    private static final String INSERTED = "INSERTED";
+    private static final String INDEXED = "INDEXED";
+
+    private final FileChannel channel;
+
+    private final Map<String, Long> insertingByDirectoryName = new HashMap<>();
+    private final Set<Long> insertingEntryIds = new HashSet<>();
+    private final Map<String, Long> insertedByDirectoryName = new HashMap<>();
+    private final Set<Long> insertedEntryIds = new HashSet<>();
+    private final Set<Long> indexedEntryIds = new HashSet<>();
+
+    private EtdInsertJournal(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Gets the path of the journal of runs into an index.
+     *
+     * @param etdDocumentStore Root of the ETD document store
+     * @param indexName Index or alias the entries are indexed in
+     * @return Path of the journal
+     */
+    static Path getJournalPath(Path etdDocumentStore, String indexName) {
+        return etdDocumentStore.resolve(EtdEntryMeta.INDEX_NAME.equals(indexName)
+                ? JOURNAL_FILENAME
+                : JOURNAL_FILENAME + "-" + indexName);
+    }
+
+    /**
+     * Opens the journal of runs into an index in an ETD document store.
+     *
+     * @param etdDocumentStore Root of the ETD document store
+     * @param indexName Index or alias the entries are indexed in
+     * @param resume Whether to load the existing journal, or start a new one
+     * @return Journal
+     * @throws IOException If the journal cannot be read or created
+     */
+    static EtdInsertJournal open(Path etdDocumentStore, String indexName, boolean resume) throws IOException {
+        final Path journalPath = getJournalPath(etdDocumentStore, indexName);
+
+        List<String> lines = new ArrayList<>();
+        boolean partialLastLine = false;
+        if (resume && Files.exists(journalPath)) {
+            final String content = new String(Files.readAllBytes(journalPath), StandardCharsets.UTF_8);
+            lines.addAll(Arrays.asList(content.split("\n")));
+
+            // A crash can leave a partially written last line, which cannot be trusted
+            partialLastLine = !content.isEmpty() && !content.endsWith("\n");
+            if (partialLastLine) {
+                lines.remove(lines.size() - 1);
+            }
+        }
+
+        FileChannel channel = resume
+                ? FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        EtdInsertJournal journal = new EtdInsertJournal(channel);
+        for (String line : lines) {
+            journal.replay(line);
+        }
+
+        // Terminate the partial line, so that it does not merge with new records
+        if (partialLastLine) {
+            journal.append("\n");
+        }
+
+        return journal;
+    }
+
+    /**
+     * Gets the ID of the entry created from a directory in a previous run.
+     * Directories are renamed to the ID of their entry when inserted, so the name is checked against both.
+     *
+     * @param directoryName Current name of the entry directory
+     * @return ID of the inserted entry, or null if the directory has not been inserted
+     */
+    synchronized Long getInsertedEntryId(String directoryName) {
+        try {
+            final long directoryId = Long.parseLong(directoryName);
+            if (insertedEntryIds.contains(directoryId)) {
+                return directoryId;
+            }
+        } catch (NumberFormatException ignored) { }
+
+        return insertedByDirectoryName.get(directoryName);
+    }
+
+    /**
+     * Gets the ID of the entry whose insert from a directory was started, but not completed, in a previous run.
+     * The directory may already have been renamed to the ID of the entry.
+     *
+     * @param directoryName Current name of the entry directory
+     * @return ID of the entry, or null if no insert of the directory was interrupted
+     */
+    synchronized Long getInterruptedEntryId(String directoryName) {
+        Long entryId = null;
+        try {
+            final long directoryId = Long.parseLong(directoryName);
+            if (insertingEntryIds.contains(directoryId)) {
+                entryId = directoryId;
+            }
+        } catch (NumberFormatException ignored) { }
+
+        if (entryId == null) {
+            entryId = insertingByDirectoryName.get(directoryName);
+        }
+
+        return entryId != null && !insertedEntryIds.contains(entryId) ? entryId : null;
+    }
+
+    /**
+     * Checks if an entry has been indexed in a previous run.
+     *
+     * @param entryId ID of the entry
+     * @return True if the entry has been indexed
+     */
+    synchronized boolean isIndexed(long entryId) {
+        return indexedEntryIds.contains(entryId);
+    }
+
+    /**
+     * Durably records that the insert of an entry directory has started, once its entry exists in the database.
+     *
+     * @param directoryName Original name of the entry directory
+     * @param entryId ID of the created entry
+     * @throws IOException If the record cannot be written
+     */
+    synchronized void recordInserting(String directoryName, long entryId) throws IOException {
+        append(String.format("%s %s %d\n", INSERTING, directoryName, entryId));
+        insertingByDirectoryName.put(directoryName, entryId);
+        insertingEntryIds.add(entryId);
+    }
+
+    /**
+     * Durably records that an entry directory has been inserted in the database.
+     *
+     * @param directoryName Original name of the entry directory
+     * @param entryId ID of the created entry
+     * @throws IOException If the record cannot be written
+     */
+    synchronized void recordInserted(String directoryName, long entryId) throws IOException {
+        append(String.format("%s %s %d\n", INSERTED, directoryName, entryId));
+        insertedByDirectoryName.put(directoryName, entryId);
+        insertedEntryIds.add(entryId);
+    }
+
+    /**
+     * Durably records that entries have been indexed.
+     *
+     * @param entryIds IDs of the indexed entries
+     * @throws IOException If the records cannot be written
+     */
+    synchronized void recordIndexed(Collection<Long> entryIds) throws IOException {
+        StringBuilder records = new StringBuilder();
+        for (Long entryId : entryIds) {
+            records.append(INDEXED).append(' ').append(entryId).append('\n');
+        }
+
+        append(records.toString());
+        indexedEntryIds.addAll(entryIds);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void append(String records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private void replay(String line) {
+        final String[] parts = line.trim().split(" ");
+        try {
+            if (parts.length == 3 && parts[0].equals(INSERTING)) {
+                final long entryId = Long.parseLong(parts[2]);
+                insertingByDirectoryName.put(parts[1], entryId);
+                insertingEntryIds.add(entryId);
+            } else if (parts.length == 3 && parts[0].equals(INSERTED)) {
+                final long entryId = Long.parseLong(parts[2]);
+                insertedByDirectoryName.put(parts[1], entryId);
+                insertedEntryIds.add(entryId);
+            } else if (parts.length == 2 && parts[0].equals(INDEXED)) {
+                indexedEntryIds.add(Long.parseLong(parts[1]));
+            }
+        } catch (NumberFormatException ignored) { }
+    }
+}
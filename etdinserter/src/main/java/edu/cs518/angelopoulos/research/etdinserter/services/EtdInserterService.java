@@ -4,7 +4,9 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
 import edu.cs518.angelopoulos.research.common.models.EtdEntry;
-import edu.cs518.angelopoulos.research.common.repositories.EtdEntryMetaRepository;
+import edu.cs518.angelopoulos.research.common.services.EtdDocumentStore;
+import edu.cs518.angelopoulos.research.common.services.EtdDocumentTextIndexer;
+import edu.cs518.angelopoulos.research.common.services.EtdEntryMetaBulkIndexer;
 import edu.cs518.angelopoulos.research.common.services.EtdEntryService;
 import org.apache.commons.io.FileUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,26 +15,137 @@ import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Inserts ETD entries from a directory into MySQL and ElasticSearch.
+ * <p>
+ * Entries flow through a pipeline of stages connected by bounded queues:
+ * directory scan, JSON parse (multiple workers), MySQL insert and ElasticSearch bulk index.
+ * A full queue blocks the stage feeding it, so the whole pipeline runs at the pace of its slowest stage.
+ */
 @Service
 public class EtdInserterService {
     private EtdEntryService etdEntryService;
-    private EtdEntryMetaRepository elasticEtdEntries;
+    private EtdEntryMetaBulkIndexer etdEntryMetaBulkIndexer;
+    private EtdDocumentStore etdDocumentDataStore;
+    private EtdDocumentTextIndexer etdDocumentTextIndexer;
 
     private String etdDocumentStore;
 
+    private final ObjectMapper mapper;
+
+    private static final int INDEX_QUEUE_CAPACITY = 5000;
+
+    /**
+     * ETD entry directory found by the scan stage.
+     * The entry ID is already known if the entry was inserted in a previous run, or if only indexing.
+     * An insert interrupted in a previous run is completed with the entry it had created.
+     */
+    private static class ScannedEntry {
+        final long sequence;
+        final File directory;
+        final File jsonFile;
+        final File[] pdfFiles;
+        final Long knownEntryId;
+        final Long interruptedEntryId;
+
+        ScannedEntry(long sequence, File directory, File jsonFile, File[] pdfFiles, Long knownEntryId,
+                     Long interruptedEntryId) {
+            this.sequence = sequence;
+            this.directory = directory;
+            this.jsonFile = jsonFile;
+            this.pdfFiles = pdfFiles;
+            this.knownEntryId = knownEntryId;
+            this.interruptedEntryId = interruptedEntryId;
+        }
+    }
+
+    /**
+     * ETD entry with metadata read by the parse stage. The metadata is null if it could not be parsed.
+     */
+    private static class ParsedEntry {
+        final ScannedEntry scannedEntry;
+        final EtdEntryMeta etdEntryMeta;
+
+        ParsedEntry(ScannedEntry scannedEntry, EtdEntryMeta etdEntryMeta) {
+            this.scannedEntry = scannedEntry;
+            this.etdEntryMeta = etdEntryMeta;
+        }
+    }
+
+    // Marks the end of the input of a stage
+    private static final ScannedEntry END_OF_SCAN = new ScannedEntry(-1, null, null, null, null, null);
+    private static final ParsedEntry END_OF_PARSE = new ParsedEntry(END_OF_SCAN, null);
+    private static final EtdEntryMeta END_OF_INSERT = new EtdEntryMeta();
+
+    /**
+     * Throughput counters of a pipeline stage.
+     */
+    private static class StageStatistics {
+        final String name;
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final int workers;
+
+        StageStatistics(String name, int workers) {
+            this.name = name;
+            this.workers = workers;
+        }
+
+        void record(long startNanos, long itemCount) {
+            busyNanos.addAndGet(System.nanoTime() - startNanos);
+            items.addAndGet(itemCount);
+        }
+
+        void print(long elapsedNanos) {
+            double elapsedSeconds = elapsedNanos / 1e9;
+            double busyPercent = 100.0 * busyNanos.get() / ((double) elapsedNanos * workers);
+            System.out.printf("  %-8s %10d items  %10.1f items/s  busy %5.1f%%\n",
+                    name, items.get(), items.get() / elapsedSeconds, busyPercent);
+        }
+    }
+
     @Autowired
-    public EtdInserterService(EtdEntryService etdEntryService, EtdEntryMetaRepository elasticEtdEntries,
+    public EtdInserterService(EtdEntryService etdEntryService, EtdEntryMetaBulkIndexer etdEntryMetaBulkIndexer,
+                              EtdDocumentStore etdDocumentDataStore, EtdDocumentTextIndexer etdDocumentTextIndexer,
                               @Value("${data.etd.documentstore}") String etdDocumentStore) {
         this.etdEntryService = etdEntryService;
-        this.elasticEtdEntries = elasticEtdEntries;
+        this.etdEntryMetaBulkIndexer = etdEntryMetaBulkIndexer;
+        this.etdDocumentDataStore = etdDocumentDataStore;
+        this.etdDocumentTextIndexer = etdDocumentTextIndexer;
         this.etdDocumentStore = etdDocumentStore;
+
+        this.mapper = new ObjectMapper();
+        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.mapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
     }
 
-    public void insertFromDirectory(String directoryPath, boolean copyToStore, boolean indexOnly) throws IOException {
+    /**
+     * Inserts all ETD entries found in the ETD document store.
+     *
+     * @param directoryPath Directory containing the ETD entries
+     * @param copyToStore Whether to copy the directory to the ETD document store first
+     * @param indexOnly Whether to only index the entries in ElasticSearch
+     * @param parseWorkers Number of workers parsing ETD entry metadata
+     * @param resume Whether to resume a previous run, skipping the work recorded in its journal
+     * @param indexName Index or alias to index the entries in
+     * @param bulkLoad Whether to disable refresh and replicas of the index during the run. Entries are then not
+     *                 searchable and have no replica until the run completes, so only for an initial load or a new index.
+     * @return Number of entries that failed to be indexed
+     * @throws IOException If the pipeline fails
+     */
+    public long insertFromDirectory(String directoryPath, boolean copyToStore, boolean indexOnly, int parseWorkers,
+                                    boolean resume, String indexName, boolean bulkLoad) throws IOException {
         System.out.printf("Scanning '%s' for ETD entries...\n", directoryPath);
 
         // Note: this can take time
@@ -44,70 +157,295 @@ public class EtdInserterService {
         }
 
         File etdStoreDirectory = new File(etdDocumentStore);
-        File[] entryDirectories = etdStoreDirectory.listFiles(File::isDirectory);
+        // Entry directories have numeric names, other directories belong to the document store
+        File[] entryDirectories = etdStoreDirectory.listFiles(file -> file.isDirectory() && parseEntryId(file.getName()) != null);
         assert entryDirectories != null;
 
         // Sort directories numerically
-        Arrays.sort(entryDirectories, (f1, f2) -> {
+        Arrays.sort(entryDirectories, Comparator.comparingLong(file -> parseEntryId(file.getName())));
+
+        System.out.printf("Number of ETD entries to insert: %d\n", entryDirectories.length);
+
+        final int queueCapacity = Math.max(64, parseWorkers * 16);
+        final BlockingQueue<ScannedEntry> parseQueue = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<ParsedEntry> insertQueue = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<EtdEntryMeta> indexQueue = new ArrayBlockingQueue<>(INDEX_QUEUE_CAPACITY);
+
+        // Bounds the entries between the scan and insert stages, including those held back for reordering,
+        // so that a slow parse stops the scan instead of growing the reorder buffer without limit
+        final Semaphore entriesInFlight = new Semaphore(2 * queueCapacity + parseWorkers);
+
+        final StageStatistics scanStatistics = new StageStatistics("scan", 1);
+        final StageStatistics parseStatistics = new StageStatistics("parse", parseWorkers);
+        final StageStatistics insertStatistics = new StageStatistics("insert", 1);
+        final StageStatistics indexStatistics = new StageStatistics("index", 1);
+
+        final AtomicInteger entriesResumed = new AtomicInteger();
+
+        // Progress is checkpointed in a journal, so that a failed run can be resumed
+        final EtdInsertJournal journal = EtdInsertJournal.open(Paths.get(etdDocumentStore), indexName, resume);
+        if (resume) {
+            System.out.println("Resuming previous run...");
+        }
+
+        // Entries are only marked as indexed once ElasticSearch has acknowledged them
+        final AtomicReference<IOException> journalFailure = new AtomicReference<>();
+        final EtdEntryMetaBulkIndexer.Session indexSession = etdEntryMetaBulkIndexer.openSession(indexName, bulkLoad,
+                indexedIds -> {
+                    indexStatistics.items.addAndGet(indexedIds.size());
+                    try {
+                        journal.recordIndexed(indexedIds);
+                    } catch (IOException e) {
+                        journalFailure.compareAndSet(null, e);
+                    }
+                });
+
+        ExecutorService executor = Executors.newFixedThreadPool(parseWorkers + 3);
+        CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+        final long startNanos = System.nanoTime();
+
+        stages.submit(() -> scanStage(entryDirectories, parseQueue, entriesInFlight, parseWorkers, indexOnly, journal,
+                entriesResumed, scanStatistics));
+        for (int i = 0; i < parseWorkers; ++i) {
+            stages.submit(() -> parseStage(parseQueue, insertQueue, parseStatistics));
+        }
+        stages.submit(() -> insertStage(insertQueue, indexQueue, entriesInFlight, parseWorkers, indexOnly, journal,
+                insertStatistics));
+        stages.submit(() -> indexStage(indexQueue, indexSession, indexStatistics));
+
+        // Wait for every stage, aborting the whole pipeline if one fails
+        try {
+            for (int i = 0; i < parseWorkers + 3; ++i) {
+                stages.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while inserting ETD entries.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to insert ETD entries.", e.getCause());
+        } finally {
+            executor.shutdownNow();
             try {
-                int i1 = Integer.parseInt(f1.getName());
-                int i2 = Integer.parseInt(f2.getName());
-                return i1 - i2;
-            } catch (NumberFormatException e) {
-                throw new AssertionError(e);
+                indexSession.close();
+            } finally {
+                journal.close();
             }
-        });
+        }
 
-        System.out.printf("Number of ETD entries to insert: %d\n", entryDirectories.length);
+        if (journalFailure.get() != null) {
+            throw new IOException("Failed to checkpoint indexed ETD entries.", journalFailure.get());
+        }
 
-        // Use a buffer for bulk inserting entries to ElasticSearch
-        List<EtdEntryMeta> etdEntryMetaBuffer = new ArrayList<>();
-        final int bufferSize = 5000;
+        // Failed entries are not journaled as indexed, so a resumed run indexes them again
+        final List<Long> failedIds = indexSession.getFailedIds();
+        if (!failedIds.isEmpty()) {
+            System.out.printf("Failed to index ETD entries %s, resume the run to retry them\n", failedIds);
+        } else if (!EtdEntryMeta.INDEX_NAME.equals(indexName)) {
+            // Runs into a new index are never resumed, their journal is only kept for inspection after a failure
+            Files.deleteIfExists(EtdInsertJournal.getJournalPath(Paths.get(etdDocumentStore), indexName));
+        }
+
+        // The text of inserted documents is extracted in the background while the pipeline runs
+        if (!indexOnly) {
+            System.out.println("Waiting for text extraction of ETD documents...");
+            try {
+                etdDocumentTextIndexer.awaitPending();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting text of ETD documents.", e);
+            }
+        }
+
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long entriesInserted = indexSession.getIndexed();
+
+        System.out.printf("Inserted %d ETD entries, resumed %d, failed to index %d, skipped %d\n", entriesInserted,
+                entriesResumed.get(), indexSession.getFailed(),
+                entryDirectories.length - entriesInserted - entriesResumed.get() - indexSession.getFailed());
+        System.out.printf("Pipeline throughput over %.1f s:\n", elapsedNanos / 1e9);
+        scanStatistics.print(elapsedNanos);
+        parseStatistics.print(elapsedNanos);
+        insertStatistics.print(elapsedNanos);
+        indexStatistics.print(elapsedNanos);
+
+        return indexSession.getFailed();
+    }
+
+    /**
+     * Finds the metadata and document files of every ETD entry directory, in order.
+     * Entries completed by a previous run are skipped.
+     */
+    private Void scanStage(File[] entryDirectories, BlockingQueue<ScannedEntry> parseQueue, Semaphore entriesInFlight,
+                           int parseWorkers, boolean indexOnly, EtdInsertJournal journal, AtomicInteger entriesResumed,
+                           StageStatistics statistics) throws InterruptedException {
+        long sequence = 0;
 
-        int entriesInserted = 0;
         for (File entryDirectory : entryDirectories) {
-            System.out.printf("Inserting entry %s...\n", entryDirectory.getName());
+            final long itemStartNanos = System.nanoTime();
 
             // Get number of JSON files
             File[] jsonFiles = findFilesByType(entryDirectory.getPath(), ".json");
-            if (jsonFiles.length > 1) continue;
-
             File[] pdfFiles = findFilesByType(entryDirectory.getPath(), ".pdf");
-            if (pdfFiles.length < 1) continue;
-
-            // Read JSON file and get ETD metadata
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            mapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
-            EtdEntryMeta etdEntryMeta = mapper.readValue(jsonFiles[0], EtdEntryMeta.class);
-
-            // Create entry in ETD store and database
-            if (!indexOnly) {
-                EtdEntry etdEntry = this.etdEntryService.insertEtdEntryFromDisk(etdEntryMeta, entryDirectory, pdfFiles);
-                etdEntryMeta.setId(etdEntry.getId());
-            } else {
-                etdEntryMeta.setId((long) entriesInserted + 1);
+
+            statistics.record(itemStartNanos, 1);
+
+            if (jsonFiles == null || jsonFiles.length != 1) continue;
+
+            // Inserted entries of a content addressed store no longer hold their documents
+            final boolean hasDocuments = pdfFiles != null && pdfFiles.length >= 1;
+            if (!hasDocuments && !etdDocumentDataStore.isContentAddressed()) continue;
+
+            // Inserted entry directories are named after the ID of their entry. The ID is never derived from the
+            // position of the directory, as entries without metadata files and deleted entries leave gaps.
+            final Long knownEntryId = indexOnly
+                    ? parseEntryId(entryDirectory.getName())
+                    : journal.getInsertedEntryId(entryDirectory.getName());
+            final Long interruptedEntryId = knownEntryId == null && !indexOnly
+                    ? journal.getInterruptedEntryId(entryDirectory.getName()) : null;
+
+            // Without a journal record, a stored entry was inserted by an earlier run
+            if (knownEntryId == null && interruptedEntryId == null && !hasDocuments) continue;
+
+            if (knownEntryId != null && journal.isIndexed(knownEntryId)) {
+                entriesResumed.incrementAndGet();
+                continue;
+            }
+
+            entriesInFlight.acquire();
+            parseQueue.put(new ScannedEntry(sequence++, entryDirectory, jsonFiles[0], pdfFiles, knownEntryId,
+                    interruptedEntryId));
+        }
+
+        for (int i = 0; i < parseWorkers; ++i) {
+            parseQueue.put(END_OF_SCAN);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the ETD metadata JSON file of scanned entries.
+     */
+    private Void parseStage(BlockingQueue<ScannedEntry> parseQueue, BlockingQueue<ParsedEntry> insertQueue,
+                            StageStatistics statistics) throws InterruptedException {
+        while (true) {
+            ScannedEntry scannedEntry = parseQueue.take();
+            if (scannedEntry == END_OF_SCAN) {
+                insertQueue.put(END_OF_PARSE);
+                return null;
+            }
+
+            final long itemStartNanos = System.nanoTime();
+            EtdEntryMeta etdEntryMeta = null;
+            try {
+                etdEntryMeta = mapper.readValue(scannedEntry.jsonFile, EtdEntryMeta.class);
+            } catch (IOException e) {
+                System.out.printf("Failed to read metadata of entry %s: %s\n", scannedEntry.directory.getName(), e.getMessage());
+            }
+            statistics.record(itemStartNanos, 1);
+
+            // Entries that failed to parse are still passed on, so that the insert stage can keep its order
+            insertQueue.put(new ParsedEntry(scannedEntry, etdEntryMeta));
+        }
+    }
+
+    /**
+     * Creates parsed entries in the ETD store and database.
+     * Entries are inserted in scan order, so that IDs are assigned in the same order as the directories.
+     * Entries parsed ahead of their turn wait in a reorder buffer, bounded by the entries in flight.
+     */
+    private Void insertStage(BlockingQueue<ParsedEntry> insertQueue, BlockingQueue<EtdEntryMeta> indexQueue,
+                             Semaphore entriesInFlight, int parseWorkers, boolean indexOnly, EtdInsertJournal journal,
+                             StageStatistics statistics) throws InterruptedException, IOException {
+        final PriorityQueue<ParsedEntry> reorderBuffer =
+                new PriorityQueue<>(Comparator.comparingLong((ParsedEntry entry) -> entry.scannedEntry.sequence));
+        long nextSequence = 0;
+        int finishedParseWorkers = 0;
+
+        while (finishedParseWorkers < parseWorkers) {
+            ParsedEntry parsedEntry = insertQueue.take();
+            if (parsedEntry == END_OF_PARSE) {
+                ++finishedParseWorkers;
+                continue;
             }
+            reorderBuffer.add(parsedEntry);
+
+            while (!reorderBuffer.isEmpty() && reorderBuffer.peek().scannedEntry.sequence == nextSequence) {
+                insertEntry(reorderBuffer.poll(), indexQueue, indexOnly, journal, statistics);
+                entriesInFlight.release();
+                ++nextSequence;
+            }
+        }
+
+        indexQueue.put(END_OF_INSERT);
+        return null;
+    }
+
+    private void insertEntry(ParsedEntry parsedEntry, BlockingQueue<EtdEntryMeta> indexQueue, boolean indexOnly,
+                             EtdInsertJournal journal, StageStatistics statistics) throws InterruptedException, IOException {
+        final ScannedEntry scannedEntry = parsedEntry.scannedEntry;
+        final EtdEntryMeta etdEntryMeta = parsedEntry.etdEntryMeta;
+        if (etdEntryMeta == null) {
+            return;
+        }
+
+        System.out.printf("Inserting entry %s...\n", scannedEntry.directory.getName());
 
-            // Add entry to ES buffer to bulk insert later
-            etdEntryMetaBuffer.add(etdEntryMeta);
+        final long itemStartNanos = System.nanoTime();
 
-            // Index ETD entries in ElasticSearch
-            if (entriesInserted % bufferSize == 0) {
-                System.out.println("Indexing in ElasticSearch...");
-                elasticEtdEntries.saveAll(etdEntryMetaBuffer);
-                etdEntryMetaBuffer.clear();
+        // Create entry in ETD store and database, unless it already exists
+        if (scannedEntry.knownEntryId == null) {
+            final EtdEntry etdEntry;
+            if (scannedEntry.interruptedEntryId != null) {
+                try {
+                    etdEntry = this.etdEntryService.getEtdEntry(scannedEntry.interruptedEntryId);
+                } catch (EtdEntryService.EtdEntryNotFoundException e) {
+                    throw new IOException(String.format("Entry %d of interrupted insert of %s no longer exists.",
+                            scannedEntry.interruptedEntryId, scannedEntry.directory.getName()), e);
+                }
+            } else {
+                // The entry is recorded before its directory is moved, so that a crash can be recovered from on resume
+                etdEntry = this.etdEntryService.createEtdEntryForDisk();
+                journal.recordInserting(scannedEntry.directory.getName(), etdEntry.getId());
             }
 
-            ++entriesInserted;
+            this.etdEntryService.insertEtdEntryFromDisk(etdEntry, etdEntryMeta, scannedEntry.directory, scannedEntry.pdfFiles);
+            etdEntryMeta.setId(etdEntry.getId());
+            journal.recordInserted(scannedEntry.directory.getName(), etdEntry.getId());
+        } else {
+            etdEntryMeta.setId(scannedEntry.knownEntryId);
         }
 
-        // Index any remaining ETD entries
-        System.out.println("Indexing in ElasticSearch...");
-        elasticEtdEntries.saveAll(etdEntryMetaBuffer);
-        etdEntryMetaBuffer.clear();
+        statistics.record(itemStartNanos, 1);
 
-        System.out.printf("Inserted %d ETD entries, skipped %d\n", entriesInserted, entryDirectories.length - entriesInserted);
+        indexQueue.put(etdEntryMeta);
+    }
+
+    /**
+     * Bulk indexes inserted entries in ElasticSearch.
+     * Documents are flushed by the bulk indexer, which reports the indexed entries asynchronously.
+     */
+    private Void indexStage(BlockingQueue<EtdEntryMeta> indexQueue, EtdEntryMetaBulkIndexer.Session indexSession,
+                            StageStatistics statistics) throws InterruptedException {
+        while (true) {
+            EtdEntryMeta etdEntryMeta = indexQueue.take();
+            if (etdEntryMeta == END_OF_INSERT) {
+                return null;
+            }
+
+            // Blocks while the maximum number of bulk requests are in flight
+            final long itemStartNanos = System.nanoTime();
+            indexSession.add(etdEntryMeta);
+            statistics.record(itemStartNanos, 0);
+        }
+    }
+
+    private static Long parseEntryId(String directoryName) {
+        try {
+            return Long.parseLong(directoryName);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     private File[] findFilesByType(String directoryPath, String type) {
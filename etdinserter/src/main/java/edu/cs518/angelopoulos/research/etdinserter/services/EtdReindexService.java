@@ -0,0 +1,150 @@
+package edu.cs518.angelopoulos.research.etdinserter.services;
+
+import edu.cs518.angelopoulos.research.common.models.EtdEntryMeta;
+import edu.cs518.angelopoulos.research.common.services.EtdEntryMetaIndexManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds the ElasticSearch index of ETD entries without search downtime.
+ * <p>
+ * The entries are indexed from the ETD document store into a new versioned index, created from the current index
+ * definition, while the live index keeps serving searches and writes. The new index is then compared with the live
+ * index by document ID and source checksum, and the entries created or deleted meanwhile are replayed into it.
+ * <p>
+ * Writes to the live index are only blocked for the final comparison and the alias swap, so that no write is lost
+ * or undone by the swap. Only if both indices hold the same documents is the alias swapped to the new index.
+ */
+@Service
+public class EtdReindexService {
+    private static final int REPORTED_IDS = 10;
+
+    private final EtdInserterService etdInserterService;
+    private final EtdEntryMetaIndexManager etdEntryMetaIndexManager;
+
+    @Autowired
+    public EtdReindexService(EtdInserterService etdInserterService, EtdEntryMetaIndexManager etdEntryMetaIndexManager) {
+        this.etdInserterService = etdInserterService;
+        this.etdEntryMetaIndexManager = etdEntryMetaIndexManager;
+    }
+
+    /**
+     * Reindexes all ETD entries found in the ETD document store into a new index and swaps the alias to it.
+     * On failure the new index is kept for inspection, and the live index is left untouched.
+     *
+     * @param directoryPath Directory containing the ETD entries
+     * @param parseWorkers Number of workers parsing ETD entry metadata
+     * @param deletePreviousIndices Whether to delete the indices the alias pointed to before
+     * @throws IOException If the entries could not be indexed, or the new index does not match the live index
+     */
+    public void reindexFromDirectory(String directoryPath, int parseWorkers, boolean deletePreviousIndices)
+            throws IOException {
+        final List<String> liveIndices = etdEntryMetaIndexManager.getLiveIndices();
+        final List<String> previousIndices;
+
+        final String newIndexName = etdEntryMetaIndexManager.createVersionedIndex();
+        System.out.printf("Reindexing ETD entries into new index %s...\n", newIndexName);
+
+        // The new index is not searched until the alias is swapped, so it is bulk loaded
+        final long failed = etdInserterService.insertFromDirectory(directoryPath, false, true, parseWorkers, false,
+                newIndexName, true);
+        if (failed > 0) {
+            throw new IOException(String.format("Failed to index %d ETD entries into %s, alias not swapped.",
+                    failed, newIndexName));
+        }
+
+        // Catch up with the live index while it still accepts writes, so that little is left to replay once blocked
+        if (!liveIndices.isEmpty()) {
+            reconcileWithLiveIndex(newIndexName, false);
+        }
+
+        for (String liveIndex : liveIndices) {
+            etdEntryMetaIndexManager.setWriteBlock(liveIndex, true);
+        }
+        System.out.printf("Blocked writes to %s until the alias is swapped\n", liveIndices);
+
+        boolean swapped = false;
+        try {
+            // Replay the entries created or deleted since the previous comparison
+            if (!liveIndices.isEmpty()) {
+                reconcileWithLiveIndex(newIndexName, true);
+            }
+
+            previousIndices = etdEntryMetaIndexManager.swapAlias(newIndexName);
+            swapped = true;
+            System.out.printf("Alias %s now points to %s\n", EtdEntryMeta.INDEX_NAME, newIndexName);
+        } finally {
+            // A concrete live index from before indices were versioned is deleted by the swap
+            for (String liveIndex : liveIndices) {
+                if (!swapped || !liveIndex.equals(EtdEntryMeta.INDEX_NAME)) {
+                    etdEntryMetaIndexManager.setWriteBlock(liveIndex, false);
+                }
+            }
+        }
+
+        if (deletePreviousIndices) {
+            for (String previousIndex : previousIndices) {
+                etdEntryMetaIndexManager.deleteIndex(previousIndex);
+            }
+        }
+    }
+
+    /**
+     * Compares the new index with the live index and makes it hold the same documents.
+     * <p>
+     * Entries that are only in the live index were created through the API, and have no metadata file in the store,
+     * so they are copied over. Entries that are only in the new index were deleted, but their directory was left in
+     * the store, so their deletion is replayed. Entries in both indices must have the same source, otherwise the
+     * store does not match the live index and the reindex fails.
+     *
+     * @param newIndexName Name of the new index
+     * @param verify Whether to check that both indices match afterwards, only once writes to the live index are blocked
+     */
+    private void reconcileWithLiveIndex(String newIndexName, boolean verify) throws IOException {
+        final Map<String, Long> liveChecksums = etdEntryMetaIndexManager.getDocumentChecksums(EtdEntryMeta.INDEX_NAME);
+        final Map<String, Long> newChecksums = etdEntryMetaIndexManager.getDocumentChecksums(newIndexName);
+
+        List<String> missingIds = new ArrayList<>();
+        List<String> mismatchedIds = new ArrayList<>();
+        for (Map.Entry<String, Long> liveChecksum : liveChecksums.entrySet()) {
+            final Long newChecksum = newChecksums.get(liveChecksum.getKey());
+            if (newChecksum == null) {
+                missingIds.add(liveChecksum.getKey());
+            } else if (!newChecksum.equals(liveChecksum.getValue())) {
+                mismatchedIds.add(liveChecksum.getKey());
+            }
+        }
+
+        List<String> deletedIds = new ArrayList<>();
+        for (String newId : newChecksums.keySet()) {
+            if (!liveChecksums.containsKey(newId)) {
+                deletedIds.add(newId);
+            }
+        }
+
+        System.out.printf("Compared with the live index: %d ETD entries match, %d differ, %d only live, %d only new\n",
+                newChecksums.size() - mismatchedIds.size() - deletedIds.size(), mismatchedIds.size(),
+                missingIds.size(), deletedIds.size());
+
+        if (!mismatchedIds.isEmpty()) {
+            throw new IOException(String.format("%d ETD entries of %s differ from the live index, e.g. %s, alias not swapped.",
+                    mismatchedIds.size(), newIndexName, mismatchedIds.subList(0, Math.min(REPORTED_IDS, mismatchedIds.size()))));
+        }
+
+        final long copied = etdEntryMetaIndexManager.copyDocuments(EtdEntryMeta.INDEX_NAME, newIndexName, missingIds);
+        System.out.printf("Copied %d ETD entries without metadata files from the live index\n", copied);
+
+        etdEntryMetaIndexManager.deleteDocuments(newIndexName, deletedIds);
+        System.out.printf("Deleted %d ETD entries that are no longer in the live index\n", deletedIds.size());
+
+        if (verify && !etdEntryMetaIndexManager.getDocumentChecksums(newIndexName).equals(liveChecksums)) {
+            throw new IOException(String.format("Index %s does not match the live index after copying, alias not swapped.",
+                    newIndexName));
+        }
+    }
+}